@@ -0,0 +1,84 @@
+package com.riad.benchmarks;
+
+import com.riad.http.HttpParser;
+import com.riad.http.HttpRequest;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HttpParser#parseHttpRequest} on a browser request, a request with many headers and a chunked POST.
+ * One parser is reused, as on a keep-alive connection.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpParserBenchmark {
+
+    // request.txt, as sent by Chrome
+    private static final String BROWSER_REQUEST = "GET / HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "Connection: keep-alive\r\n"
+            + "Cache-Control: max-age=0\r\n"
+            + "sec-ch-ua: \"Google Chrome\";v=\"131\", \"Chromium\";v=\"131\", \"Not_A Brand\";v=\"24\"\r\n"
+            + "sec-ch-ua-mobile: ?0\r\n"
+            + "sec-ch-ua-platform: \"macOS\"\r\n"
+            + "Upgrade-Insecure-Requests: 1\r\n"
+            + "User-Agent: Mozilla/5.0 (Macintosh; Intel Mac OS X 10_15_7) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/131.0.0.0 Safari/537.36\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,image/avif,image/webp,image/apng,*/*;q=0.8,application/signed-exchange;v=b3;q=0.7\r\n"
+            + "Sec-Fetch-Site: none\r\n"
+            + "Sec-Fetch-Mode: navigate\r\n"
+            + "Sec-Fetch-User: ?1\r\n"
+            + "Sec-Fetch-Dest: document\r\n"
+            + "Accept-Encoding: gzip, deflate, br, zstd\r\n"
+            + "Accept-Language: fr-FR,fr;q=0.9,en-US;q=0.8,en;q=0.7,ar;q=0.6,ru;q=0.5\r\n"
+            + "\r\n";
+
+    @Param({"browser", "manyHeaders", "chunked"})
+    public String request;
+
+    private byte[] bytes;
+    private HttpParser parser;
+
+    @Setup
+    public void setup() {
+        bytes = switch (request) {
+            case "browser" -> BROWSER_REQUEST.getBytes(StandardCharsets.US_ASCII);
+            case "manyHeaders" -> manyHeaders().getBytes(StandardCharsets.US_ASCII);
+            case "chunked" -> chunked().getBytes(StandardCharsets.US_ASCII);
+            default -> throw new IllegalArgumentException(request);
+        };
+        parser = new HttpParser();
+    }
+
+    @Benchmark
+    public Object parseHttpRequest() throws IOException {
+        HttpRequest parsed = parser.parseHttpRequest(new ByteArrayInputStream(bytes));
+        // Bodies are read lazily, reading it is part of the work
+        return parsed.getBody() == null ? parsed : parsed.getMessageBody();
+    }
+
+    private static String manyHeaders() {
+        StringBuilder request = new StringBuilder("GET /api/items?page=2&sort=name HTTP/1.1\r\nHost: localhost\r\n");
+        for (int i = 0; i < 60; i++) {
+            request.append("X-Custom-Header-").append(i).append(": value-").append(i).append("-abcdefghijklmnop\r\n");
+        }
+        return request.append("\r\n").toString();
+    }
+
+    private static String chunked() {
+        StringBuilder request = new StringBuilder("POST /api/items HTTP/1.1\r\nHost: localhost\r\n"
+                + "Content-Type: application/json\r\nTransfer-Encoding: chunked\r\n\r\n");
+        String chunk = "{\"id\":1,\"name\":\"item\",\"tags\":[\"a\",\"b\",\"c\"]},";
+        for (int i = 0; i < 64; i++) {
+            request.append(Integer.toHexString(chunk.length())).append("\r\n").append(chunk).append("\r\n");
+        }
+        return request.append("0\r\n\r\n").toString();
+    }
+}
@@ -0,0 +1,59 @@
+package com.riad.benchmarks;
+
+import com.riad.http.HttpHeaderName;
+import com.riad.http.HttpResponse;
+import com.riad.http.HttpStatusCode;
+import com.riad.http.HttpVersion;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serialization of a typical static file response, {@link HttpResponse#getResponseBytes()} for
+ * several body sizes and {@link HttpResponse#writeHead} as the connections use it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpResponseBenchmark {
+
+    @Param({"0", "1024", "65536"})
+    public int bodySize;
+
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        body = new byte[bodySize];
+        Arrays.fill(body, (byte) 'x');
+    }
+
+    @Benchmark
+    public byte[] getResponseBytes() {
+        return newResponse().getResponseBytes();
+    }
+
+    @Benchmark
+    public Object encodeHead() {
+        return newResponse().encodeHead();
+    }
+
+    private HttpResponse newResponse() {
+        return new HttpResponse.Builder()
+                .httpVersion(HttpVersion.HTTP_1_1.LITERAL)
+                .statusCode(HttpStatusCode.OK)
+                .addHeader(HttpHeaderName.CONTENT_TYPE.headerName, "text/html")
+                .addHeader(HttpHeaderName.VARY.headerName, HttpHeaderName.ACCEPT_ENCODING.headerName)
+                .addHeader(HttpHeaderName.ETAG.headerName, "\"636-1a14febb7ca\"")
+                .addHeader(HttpHeaderName.LAST_MODIFIED.headerName, "Tue, 03 Dec 2024 21:06:52 GMT")
+                .addHeader(HttpHeaderName.ACCEPT_RANGES.headerName, "bytes")
+                .addHeader(HttpHeaderName.CACHE_CONTROL.headerName, "no-cache")
+                .addHeader(HttpHeaderName.CONNECTION.headerName, "keep-alive")
+                .messageBody(body)
+                .build();
+    }
+}
@@ -0,0 +1,26 @@
+package com.riad.benchmarks;
+
+import com.riad.http.HttpVersion;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link HttpVersion#getBestCompatibleVersion} for an exact match and a newer minor version.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class HttpVersionBenchmark {
+
+    @Param({"HTTP/1.1", "HTTP/1.5"})
+    public String version;
+
+    @Benchmark
+    public HttpVersion getBestCompatibleVersion() {
+        return HttpVersion.getBestCompatibleVersion(version);
+    }
+}
@@ -0,0 +1,51 @@
+package com.riad.benchmarks;
+
+import com.riad.util.Json;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Json#parse(String)} into a tree, against the streaming {@link Json#validate(byte[])} the
+ * POST/PUT handlers use.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonBenchmark {
+
+    @Param({"10", "1000"})
+    public int items;
+
+    private String json;
+    private byte[] jsonBytes;
+
+    @Setup
+    public void setup() {
+        StringBuilder builder = new StringBuilder("{\"items\":[");
+        for (int i = 0; i < items; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append("{\"id\":").append(i).append(",\"name\":\"item-").append(i)
+                    .append("\",\"price\":").append(i * 1.5).append(",\"tags\":[\"a\",\"b\"],\"active\":true}");
+        }
+        json = builder.append("]}").toString();
+        jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Object parseTree() throws IOException {
+        return Json.parse(json);
+    }
+
+    @Benchmark
+    public Object validateStreaming() throws IOException {
+        return Json.validate(jsonBytes);
+    }
+}
@@ -0,0 +1,63 @@
+package com.riad.benchmarks;
+
+import com.riad.core.io.CompressionPolicy;
+import com.riad.core.io.StaticContentCache;
+import com.riad.core.io.StaticResource;
+import com.riad.core.io.WebRootHandler;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * {@link WebRootHandler} resolving a request target and reading the file, through the static cache
+ * (the server's default) and without it (every request goes to the disk).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class WebRootHandlerBenchmark {
+
+    @Param({"true", "false"})
+    public boolean cached;
+
+    private Path webRoot;
+    private WebRootHandler webRootHandler;
+
+    @Setup
+    public void setup() throws IOException {
+        webRoot = Files.createTempDirectory("webroot-bench");
+        Files.createDirectories(webRoot.resolve("assets/css"));
+        Files.write(webRoot.resolve("index.html"), new byte[1590]);
+        Files.write(webRoot.resolve("assets/css/style.css"), new byte[16 * 1024]);
+        StaticContentCache cache = cached
+                ? new StaticContentCache(32 * 1024 * 1024, 10000, 64 * 1024, 16 * 1024 * 1024, 64, 1000)
+                : StaticContentCache.disabled();
+        webRootHandler = new WebRootHandler(webRoot.toString(), cache, CompressionPolicy.disabled());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(webRoot)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public StaticResource getIndex() throws Exception {
+        // "/" resolves to index.html
+        return webRootHandler.getResource("/");
+    }
+
+    @Benchmark
+    public byte[] readNestedFile() throws Exception {
+        return webRootHandler.getFileByteArrayData("/assets/css/style.css");
+    }
+}
@@ -0,0 +1,264 @@
+package com.riad.loadtest;
+
+import com.riad.core.metrics.Histogram;
+import com.riad.http.HttpMethod;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One keep-alive client connection of the load test, run on its own thread: sends a request, reads the whole
+ * response, and goes on until the end of the run. The connection is reopened when the server closes it.
+ * <p>
+ * Closed loop, the next request leaves as soon as the previous response is read. Open loop, requests are due on
+ * a fixed schedule and their latency counts from when they were due, not from when they could be sent: a stalled
+ * response delays the requests behind it, and that wait is part of their latency (coordinated omission).
+ */
+class LoadConnection implements Runnable {
+
+    private static final int MAX_HEAD = 16 * 1024;
+
+    private final InetSocketAddress address;
+    private final Workload workload;
+    private final Results results;
+    // 0 in closed loop
+    private final long intervalNanos;
+    private final long measureStartNanos;
+    private final long endNanos;
+
+    private Socket socket;
+    private InputStream in;
+    private OutputStream out;
+    private final byte[] head = new byte[MAX_HEAD];
+    private final byte[] discard = new byte[64 * 1024];
+    private long exchangedSent;
+    private long exchangedReceived;
+
+    // Closed loop: running mean of the response times, the interval the next request is expected after
+    private long completed = 0;
+    private long totalNanos = 0;
+
+    LoadConnection(InetSocketAddress address, Workload workload, Results results,
+                   long intervalNanos, long measureStartNanos, long endNanos) {
+        this.address = address;
+        this.workload = workload;
+        this.results = results;
+        this.intervalNanos = intervalNanos;
+        this.measureStartNanos = measureStartNanos;
+        this.endNanos = endNanos;
+    }
+
+    @Override
+    public void run() {
+        // Spread the connections over the first interval so they do not all fire together
+        long due = System.nanoTime() + (intervalNanos > 0 ? ThreadLocalRandom.current().nextLong(intervalNanos) : 0);
+        while (true) {
+            if (intervalNanos > 0) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+            }
+            long start = System.nanoTime();
+            if (start >= endNanos) {
+                break;
+            }
+            long intended = intervalNanos > 0 ? due : start;
+            Workload.Request request = workload.next();
+            int status;
+            try {
+                status = exchange(request);
+            } catch (IOException e) {
+                if (intended >= measureStartNanos) {
+                    results.errors.increment();
+                }
+                close();
+                due += intervalNanos;
+                continue;
+            }
+            long end = System.nanoTime();
+            if (intended >= measureStartNanos && end <= endNanos) {
+                record(status, end - intended, end - start);
+            }
+            due += intervalNanos;
+        }
+        if (intervalNanos > 0 && due < endNanos) {
+            // Due in the window but never sent, the server could not keep up with the rate
+            results.unsent.add((endNanos - Math.max(due, measureStartNanos) + intervalNanos - 1) / intervalNanos);
+        }
+        close();
+    }
+
+    private void record(int status, long latency, long serviceTime) {
+        results.countStatus(status);
+        results.bytesSent.add(exchangedSent);
+        results.bytesReceived.add(exchangedReceived);
+        results.serviceTime.record(serviceTime);
+        if (intervalNanos > 0) {
+            results.latency.record(latency);
+            return;
+        }
+        // Closed loop nothing was scheduled: a response slower than usual hid the requests this connection would
+        // have sent meanwhile. They are added back, as HdrHistogram's recordValueWithExpectedInterval does.
+        completed++;
+        totalNanos += serviceTime;
+        long expected = totalNanos / completed;
+        results.latency.record(latency);
+        if (expected > 0) {
+            for (long missed = latency - expected; missed >= expected; missed -= expected) {
+                results.latency.record(missed);
+            }
+        }
+    }
+
+    /**
+     * @return the response status.
+     */
+    private int exchange(Workload.Request request) throws IOException {
+        if (socket == null) {
+            socket = new Socket();
+            socket.setTcpNoDelay(true);
+            socket.connect(address, 5000);
+            socket.setSoTimeout(30_000);
+            in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+            out = socket.getOutputStream();
+            results.connects.increment();
+        }
+        out.write(request.bytes());
+        out.flush();
+
+        int length = readHead();
+        int status = (head[9] - '0') * 100 + (head[10] - '0') * 10 + (head[11] - '0');
+        long contentLength = 0;
+        boolean close = false;
+        // Headers start after the status line
+        int line = indexOf(head, 0, length, '\n') + 1;
+        while (line < length - 2) {
+            int end = indexOf(head, line, length, '\n');
+            if (startsWithIgnoreCase(line, end, "content-length:")) {
+                contentLength = Long.parseLong(value(line, end, "content-length:".length()));
+            } else if (startsWithIgnoreCase(line, end, "connection:")) {
+                close = value(line, end, "connection:".length()).equalsIgnoreCase("close");
+            }
+            line = end + 1;
+        }
+
+        long body = request.method() == HttpMethod.HEAD || status == 304 || status == 204 ? 0 : contentLength;
+        skip(body);
+        exchangedSent = request.bytes().length;
+        exchangedReceived = length + body;
+        if (close) {
+            close();
+        }
+        return status;
+    }
+
+    /**
+     * Reads the status line and headers into {@link #head}.
+     *
+     * @return their length, final CRLF included.
+     */
+    private int readHead() throws IOException {
+        int length = 0;
+        while (true) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Connection closed by the server");
+            }
+            if (length == head.length) {
+                throw new IOException("Response head larger than " + MAX_HEAD + " bytes");
+            }
+            head[length++] = (byte) b;
+            if (b == '\n' && length >= 4 && head[length - 2] == '\r' && head[length - 3] == '\n') {
+                return length;
+            }
+        }
+    }
+
+    private void skip(long bytes) throws IOException {
+        while (bytes > 0) {
+            int read = in.read(discard, 0, (int) Math.min(discard.length, bytes));
+            if (read < 0) {
+                throw new EOFException("Connection closed in the middle of a body");
+            }
+            bytes -= read;
+        }
+    }
+
+    private boolean startsWithIgnoreCase(int start, int end, String prefix) {
+        if (end - start < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase(head[start + i]) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String value(int line, int end, int nameLength) {
+        return new String(head, line + nameLength, end - line - nameLength).trim();
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, char c) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == c) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    private void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException e) {}
+            socket = null;
+        }
+    }
+
+    /**
+     * Shared by every connection of a run, recorded only for requests due in the measurement window.
+     */
+    static class Results {
+        // From when the request was due (open loop) or sent, corrected for coordinated omission (closed loop)
+        final Histogram latency = new Histogram();
+        // From when the request was sent to the end of its response
+        final Histogram serviceTime = new Histogram();
+        final LongAdder[] statuses = new LongAdder[6];
+        final LongAdder errors = new LongAdder();
+        // Open loop only
+        final LongAdder unsent = new LongAdder();
+        final LongAdder connects = new LongAdder();
+        final LongAdder bytesSent = new LongAdder();
+        final LongAdder bytesReceived = new LongAdder();
+
+        Results() {
+            for (int i = 0; i < statuses.length; i++) {
+                statuses[i] = new LongAdder();
+            }
+        }
+
+        void countStatus(int status) {
+            statuses[Math.min(Math.max(status / 100, 0), 5)].increment();
+        }
+
+        long completed() {
+            long total = 0;
+            for (LongAdder count : statuses) {
+                total += count.sum();
+            }
+            return total;
+        }
+    }
+}
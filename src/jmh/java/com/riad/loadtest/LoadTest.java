@@ -0,0 +1,187 @@
+package com.riad.loadtest;
+
+import com.riad.config.Configuration;
+import com.riad.core.ExecutionModel;
+import com.riad.core.ServerEngine;
+import com.riad.core.metrics.Histogram;
+import com.riad.util.Json;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * End-to-end load test: starts the server in this JVM on a free localhost port, against a webroot generated for
+ * the run under {@code target/loadtest-webroot}, and drives it with a number of keep-alive connections, closed loop or at a fixed total arrival rate.
+ * <p>
+ * Built by the {@code benchmarks} profile, options are {@code --name=value}:
+ * <pre>
+ * java -cp target/benchmarks.jar com.riad.loadtest.LoadTest --engine=NIO --connections=64 --rate=20000
+ * </pre>
+ * The server starts from {@code --config} (http.json) with the engine, execution model and static cache
+ * overridden from the options, and the access log off unless asked for.
+ */
+public class LoadTest {
+
+    private static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("config", "src/main/resources/http.json");
+        // Generated at the start of the run and deleted at the end, kept out of the source tree
+        DEFAULTS.put("webRoot", "target/loadtest-webroot");
+        DEFAULTS.put("engine", "BLOCKING");
+        DEFAULTS.put("executionModel", "POOL");
+        DEFAULTS.put("cache", "true");
+        DEFAULTS.put("accessLog", "false");
+        DEFAULTS.put("connections", "32");
+        // Requests per second over all the connections, 0 for closed loop
+        DEFAULTS.put("rate", "0");
+        DEFAULTS.put("warmup", "5");
+        DEFAULTS.put("duration", "30");
+        DEFAULTS.put("mix", "GET:80,HEAD:10,POST:5,PUT:3,DELETE:2");
+        DEFAULTS.put("sizes", "1k:60,16k:30,256k:10");
+        DEFAULTS.put("bodySize", "512");
+    }
+
+    private static final double[] PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int connections = Integer.parseInt(options.get("connections"));
+        long rate = Long.parseLong(options.get("rate"));
+        long warmupNanos = Long.parseLong(options.get("warmup")) * 1_000_000_000L;
+        long durationNanos = Long.parseLong(options.get("duration")) * 1_000_000_000L;
+        Workload workload = new Workload(options.get("mix"), options.get("sizes"), Integer.parseInt(options.get("bodySize")));
+
+        Path webRoot = Path.of(options.get("webRoot"));
+        if (Files.exists(webRoot)) {
+            delete(webRoot);
+        }
+        Files.createDirectories(webRoot);
+        try {
+            Configuration conf = serverConfiguration(options, webRoot);
+            workload.generate(webRoot, "localhost:" + conf.getPort());
+            // Binds in the constructor, connections are accepted as soon as it returns
+            conf.getEngine().newListener(conf).start();
+
+            System.out.printf("Server: engine=%s executionModel=%s cache=%s port=%d%n",
+                    conf.getEngine(), conf.getExecutionModel(), options.get("cache"), conf.getPort());
+            System.out.printf("Load: %d connections, %s, warmup %ds, measured %ds, mix %s, sizes %s%n",
+                    connections, rate > 0 ? rate + " req/s (open loop)" : "closed loop",
+                    warmupNanos / 1_000_000_000L, durationNanos / 1_000_000_000L, options.get("mix"), options.get("sizes"));
+
+            LoadConnection.Results results = new LoadConnection.Results();
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), conf.getPort());
+            long intervalNanos = rate > 0 ? Math.max(1, connections * 1_000_000_000L / rate) : 0;
+            long measureStart = System.nanoTime() + warmupNanos;
+            long end = measureStart + durationNanos;
+
+            List<Thread> threads = new ArrayList<>();
+            for (int i = 0; i < connections; i++) {
+                Thread thread = new Thread(new LoadConnection(address, workload, results, intervalNanos, measureStart, end),
+                        "loadtest-" + i);
+                thread.setDaemon(true);
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            report(results, durationNanos, rate);
+        } finally {
+            delete(webRoot);
+        }
+        // The listener has no shutdown, the test ends with the JVM
+        System.exit(0);
+    }
+
+    private static Configuration serverConfiguration(Map<String, String> options, Path webRoot) throws IOException {
+        Configuration conf = Json.fromJson(Json.parse(Files.readString(Path.of(options.get("config")))), Configuration.class);
+        conf.setPort(freePort());
+        conf.setWebRoot(webRoot.toString());
+        conf.setEngine(ServerEngine.valueOf(options.get("engine").toUpperCase()));
+        conf.setExecutionModel(ExecutionModel.valueOf(options.get("executionModel").toUpperCase()));
+        conf.setAccessLogEnabled(Boolean.parseBoolean(options.get("accessLog")));
+        if (!Boolean.parseBoolean(options.get("cache"))) {
+            // Same as StaticContentCache.disabled(): every request reads the disk
+            conf.setStaticCacheSize(0);
+            conf.setStaticCacheMaxEntries(0);
+            conf.setStaticCacheMaxFileSize(0);
+            conf.setStaticCacheMaxMappedFileSize(0);
+            conf.setStaticCacheMaxMappings(0);
+            conf.setStaticCacheRevalidateInterval(0);
+        }
+        return conf;
+    }
+
+    private static void report(LoadConnection.Results results, long durationNanos, long rate) {
+        double seconds = durationNanos / 1e9;
+        long completed = results.completed();
+        System.out.println();
+        System.out.printf("Requests:   %d in %.0fs, %.1f req/s%s%n", completed, seconds, completed / seconds,
+                rate > 0 ? String.format(" (%d req/s asked)", rate) : "");
+        System.out.printf("Transfer:   %.2f MB/s received, %.2f MB/s sent%n",
+                results.bytesReceived.sum() / seconds / 1e6, results.bytesSent.sum() / seconds / 1e6);
+        System.out.printf("Statuses:   2xx=%d 3xx=%d 4xx=%d 5xx=%d other=%d, I/O errors=%d, connections opened=%d%n",
+                results.statuses[2].sum(), results.statuses[3].sum(), results.statuses[4].sum(),
+                results.statuses[5].sum(), results.statuses[0].sum() + results.statuses[1].sum(),
+                results.errors.sum(), results.connects.sum());
+        if (results.unsent.sum() > 0) {
+            System.out.printf("Backlog:    %d requests due during the run were never sent, the server fell behind the rate%n",
+                    results.unsent.sum());
+        }
+        System.out.println();
+        System.out.println(rate > 0
+                ? "Latency, from when each request was due (corrected for coordinated omission):"
+                : "Latency, with the requests hidden by slow responses added back (corrected for coordinated omission):");
+        printPercentiles(results.latency);
+        System.out.println("Service time, from send to the end of the response (uncorrected):");
+        printPercentiles(results.serviceTime);
+        System.out.println("(percentiles are bucket upper bounds, within 1/16 of the value)");
+    }
+
+    private static void printPercentiles(Histogram histogram) {
+        StringBuilder line = new StringBuilder();
+        for (double percentile : PERCENTILES) {
+            line.append(String.format("  p%-6s %9.3f ms", percentile % 1 == 0 ? Integer.toString((int) percentile) : Double.toString(percentile),
+                    histogram.getValueAtPercentile(percentile) / 1e6));
+        }
+        line.append(String.format("  max %9.3f ms", histogram.getMax() / 1e6));
+        System.out.println(line);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (!arg.startsWith("--") || equals < 0 || !DEFAULTS.containsKey(arg.substring(2, equals))) {
+                throw new IllegalArgumentException("Unknown option " + arg + ", expected --name=value with name in "
+                        + DEFAULTS.keySet());
+            }
+            options.put(arg.substring(2, equals), arg.substring(equals + 1));
+        }
+        return options;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.riad.loadtest;
+
+import com.riad.http.HttpMethod;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * What the load test sends: a weighted mix of methods and, for GET / HEAD, a weighted mix of file sizes
+ * served from a webroot generated for the run.
+ * <p>
+ * Requests are pre-encoded once per method and target, a connection only picks one and writes its bytes.
+ */
+class Workload {
+
+    // Files generated per size class, so the server does not answer everything from one hot entry
+    static final int FILES_PER_SIZE = 16;
+
+    private final HttpMethod[] methods;
+    private final int[] methodWeights;
+    private final long[] sizes;
+    private final int[] sizeWeights;
+    private final int bodySize;
+
+    // [size class][file] -> encoded GET and HEAD requests
+    private byte[][][] gets;
+    private byte[][][] heads;
+    private byte[][] posts;
+    private byte[][] puts;
+    private byte[][] deletes;
+
+    /**
+     * @param mix   {@code GET:80,HEAD:10,POST:5,PUT:3,DELETE:2}
+     * @param sizes {@code 1k:60,16k:30,256k:10}, with k, m or no suffix
+     */
+    Workload(String mix, String sizes, int bodySize) {
+        List<String[]> methodEntries = weighted(mix);
+        this.methods = new HttpMethod[methodEntries.size()];
+        this.methodWeights = new int[methodEntries.size()];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = HttpMethod.valueOf(methodEntries.get(i)[0].toUpperCase());
+            methodWeights[i] = Integer.parseInt(methodEntries.get(i)[1]);
+        }
+
+        List<String[]> sizeEntries = weighted(sizes);
+        this.sizes = new long[sizeEntries.size()];
+        this.sizeWeights = new int[sizeEntries.size()];
+        for (int i = 0; i < this.sizes.length; i++) {
+            this.sizes[i] = parseSize(sizeEntries.get(i)[0]);
+            sizeWeights[i] = Integer.parseInt(sizeEntries.get(i)[1]);
+        }
+        this.bodySize = bodySize;
+    }
+
+    /**
+     * Writes {@value #FILES_PER_SIZE} random files per size class under {@code webRoot/files}
+     * and encodes the requests for them.
+     */
+    void generate(Path webRoot, String host) throws IOException {
+        Random random = new Random(42);
+        gets = new byte[sizes.length][FILES_PER_SIZE][];
+        heads = new byte[sizes.length][FILES_PER_SIZE][];
+        for (int i = 0; i < sizes.length; i++) {
+            Path directory = Files.createDirectories(webRoot.resolve("files").resolve(Long.toString(sizes[i])));
+            byte[] content = new byte[(int) sizes[i]];
+            for (int file = 0; file < FILES_PER_SIZE; file++) {
+                random.nextBytes(content);
+                Files.write(directory.resolve(file + ".bin"), content);
+                String target = "/files/" + sizes[i] + "/" + file + ".bin";
+                gets[i][file] = encode(HttpMethod.GET, target, host, null);
+                heads[i][file] = encode(HttpMethod.HEAD, target, host, null);
+            }
+        }
+
+        posts = new byte[FILES_PER_SIZE][];
+        puts = new byte[FILES_PER_SIZE][];
+        deletes = new byte[FILES_PER_SIZE][];
+        for (int item = 0; item < FILES_PER_SIZE; item++) {
+            byte[] body = jsonBody(item);
+            posts[item] = encode(HttpMethod.POST, "/api/items", host, body);
+            puts[item] = encode(HttpMethod.PUT, "/api/items/" + item, host, body);
+            deletes[item] = encode(HttpMethod.DELETE, "/api/items/" + item, host, null);
+        }
+    }
+
+    /**
+     * @return the next request to send, drawn from the mix.
+     */
+    Request next() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        HttpMethod method = methods[pick(methodWeights, random)];
+        int item = random.nextInt(FILES_PER_SIZE);
+        return switch (method) {
+            case GET -> new Request(method, gets[pick(sizeWeights, random)][item]);
+            case HEAD -> new Request(method, heads[pick(sizeWeights, random)][item]);
+            case POST -> new Request(method, posts[item]);
+            case PUT -> new Request(method, puts[item]);
+            case DELETE -> new Request(method, deletes[item]);
+        };
+    }
+
+    record Request(HttpMethod method, byte[] bytes) {}
+
+    private byte[] jsonBody(int item) {
+        StringBuilder json = new StringBuilder("{\"id\":").append(item).append(",\"name\":\"item-").append(item)
+                .append("\",\"padding\":\"");
+        while (json.length() < bodySize - 2) {
+            json.append('x');
+        }
+        return json.append("\"}").toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] encode(HttpMethod method, String target, String host, byte[] body) {
+        StringBuilder head = new StringBuilder()
+                .append(method.name()).append(' ').append(target).append(" HTTP/1.1\r\n")
+                .append("Host: ").append(host).append("\r\n")
+                .append("User-Agent: riad-loadtest\r\n");
+        if (body != null) {
+            head.append("Content-Type: application/json\r\n")
+                    .append("Content-Length: ").append(body.length).append("\r\n");
+        }
+        byte[] headBytes = head.append("\r\n").toString().getBytes(StandardCharsets.US_ASCII);
+        if (body == null) {
+            return headBytes;
+        }
+        byte[] request = new byte[headBytes.length + body.length];
+        System.arraycopy(headBytes, 0, request, 0, headBytes.length);
+        System.arraycopy(body, 0, request, headBytes.length, body.length);
+        return request;
+    }
+
+    private static int pick(int[] weights, ThreadLocalRandom random) {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        int draw = random.nextInt(total);
+        for (int i = 0; i < weights.length; i++) {
+            draw -= weights[i];
+            if (draw < 0) {
+                return i;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    private static List<String[]> weighted(String spec) {
+        List<String[]> entries = new ArrayList<>();
+        for (String entry : spec.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2 || Integer.parseInt(parts[1]) < 0) {
+                throw new IllegalArgumentException("Expected name:weight, got '" + entry + "' in " + spec);
+            }
+            if (Integer.parseInt(parts[1]) > 0) {
+                entries.add(parts);
+            }
+        }
+        if (entries.isEmpty()) {
+            throw new IllegalArgumentException("Nothing to send in " + spec);
+        }
+        return entries;
+    }
+
+    static long parseSize(String size) {
+        String value = size.trim().toLowerCase();
+        long unit = 1;
+        if (value.endsWith("k")) {
+            unit = 1024;
+        } else if (value.endsWith("m")) {
+            unit = 1024 * 1024;
+        }
+        if (unit > 1) {
+            value = value.substring(0, value.length() - 1);
+        }
+        return Long.parseLong(value) * unit;
+    }
+}
@@ -2,7 +2,6 @@ package com.riad;
 
 import com.riad.config.Configuration;
 import com.riad.config.ConfigurationManager;
-import com.riad.core.ServerListenerThread;
 import org.slf4j.LoggerFactory;
 import org.slf4j.Logger;
 import java.io.IOException;
@@ -21,8 +20,10 @@ public class HttpServer {
 
             LOGGER.info("Using Port : " + conf.getPort());
             LOGGER.info("Using WebRootHandler : " + conf.getWebRoot());
+            LOGGER.info("Using Engine : " + conf.getEngine());
+            LOGGER.info("Using Execution Model : " + conf.getExecutionModel());
 
-            ServerListenerThread thread = new ServerListenerThread(conf.getPort() , conf.getWebRoot());
+            Thread thread = conf.getEngine().newListener(conf);
             thread.start();
 
         } catch (IOException e) {
@@ -1,10 +1,101 @@
 package com.riad.config;
 
+import com.riad.core.AdmissionController;
+import com.riad.core.ExecutionModel;
+import com.riad.core.RateLimiter;
+import com.riad.core.ServerEngine;
+
+import java.util.List;
+
 public class Configuration {
 
     private int port ;
     private String webRoot;
 
+    private ServerEngine engine = ServerEngine.BLOCKING;
+    // 0 means one event loop per core, only used by the NIO engine
+    private int eventLoopThreads = 0;
+
+    // Persistent connections: idle time before closing and requests served per connection
+    private int keepAliveTimeout = 5000;
+    private int maxKeepAliveRequests = 100;
+    // Time a response may wait for the client to read any of it before the connection is closed (NIO engine)
+    private int writeTimeout = 60000;
+
+    // Request parsing limits
+    private int maxUriLength = 8 * 1024;
+    private int maxHeaderSize = 16 * 1024;
+    private int maxHeaderCount = 100;
+
+    // Request bodies: larger ones are refused with 413, the NIO engine spools them to disk past the threshold
+    private long maxBodySize = 64L * 1024 * 1024;
+    private int bodyMemoryThreshold = 256 * 1024;
+
+    // Static content cache: total bytes of cached contents, entries, largest cached file and how long
+    // an entry is trusted before the file is checked again (milliseconds)
+    private long staticCacheSize = 32L * 1024 * 1024;
+    private int staticCacheMaxEntries = 10000;
+    private int staticCacheMaxFileSize = 64 * 1024;
+    // Larger files are memory mapped up to this size, in at most that many mappings, and streamed above it
+    private long staticCacheMaxMappedFileSize = 16L * 1024 * 1024;
+    private int staticCacheMaxMappings = 64;
+    private long staticCacheRevalidateInterval = 1000;
+
+    // Cache-Control sent with static files, they also carry ETag and Last-Modified for revalidation
+    private String staticCacheControl = "no-cache";
+
+    // Static files compressed on the fly, by size (bytes) and MIME type prefix; precompressed .gz files are always used.
+    // Variants are kept in the static content cache, none are served when it is disabled
+    private boolean compressionEnabled = true;
+    private long compressionMinSize = 1024;
+    private long compressionMaxSize = 4L * 1024 * 1024;
+    private List<String> compressibleMimeTypes = List.of("text/", "application/javascript", "application/json",
+            "application/xml", "image/svg+xml");
+
+    // How accepted connections are executed, see ExecutionModel
+    private ExecutionModel executionModel = ExecutionModel.POOL;
+    private int workerThreads = Runtime.getRuntime().availableProcessors() * 8;
+    private int workerQueueSize = 1024;
+    // Pooled I/O buffers
+    private int bufferPoolMaxPerSizeClass = 256;
+    private int bufferPoolThreadCacheSize = 32;
+    private boolean bufferPoolLeakDetection = false;
+    // Access log, written to the "access" logger when no file is set
+    private boolean accessLogEnabled = true;
+    private String accessLogFile = "";
+    private int accessLogBufferSize = 8192;
+    // Metrics, exposed on metricsPath, to clients on the loopback interface only unless metricsAllowRemote.
+    // Latency percentiles cover the last metricsLatencyWindow seconds
+    private boolean metricsEnabled = false;
+    private String metricsPath = "/admin/metrics";
+    private boolean metricsAllowRemote = false;
+    private int metricsLatencyWindow = 60;
+    // Listening sockets: accept threads (each with its own SO_REUSEPORT socket where supported) and pending
+    // connections each of them queues. Accepted sockets: Nagle off, buffer sizes in bytes, 0 keeps the OS default
+    private int acceptorThreads = 1;
+    private int acceptBacklog = 1024;
+    private boolean tcpNoDelay = true;
+    private int socketSendBufferSize = 0;
+    private int socketReceiveBufferSize = 0;
+    // Requests in flight past which new ones get a 503, see AdmissionController: OFF, STATIC (maxInFlightRequests)
+    // or AIMD (between admissionMinLimit and maxInFlightRequests, cut when handling a request takes over
+    // admissionLatencyTarget milliseconds). maxInFlightRequests 0 is workerThreads. Retry-After of the 503, in seconds
+    private AdmissionController.Mode admissionControl = AdmissionController.Mode.OFF;
+    private int maxInFlightRequests = 0;
+    private int admissionMinLimit = 16;
+    private long admissionLatencyTarget = 100;
+    private int admissionRetryAfter = 1;
+    // Per-client rate limit, see RateLimiter: requests per second and burst per client IP (and route, when
+    // rateLimitPerRoute), clients tracked at most and how long an unused bucket is kept (milliseconds).
+    // Clients that find maxClients tracked already are let through (ALLOW) or refused (REJECT)
+    private boolean rateLimitEnabled = false;
+    private double rateLimitRequestsPerSecond = 100;
+    private int rateLimitBurst = 200;
+    private boolean rateLimitPerRoute = false;
+    private int rateLimitMaxClients = 100000;
+    private long rateLimitIdleTimeout = 60000;
+    private RateLimiter.Overflow rateLimitOverflow = RateLimiter.Overflow.ALLOW;
+
 
     public int getPort() {
         return port;
@@ -21,4 +112,412 @@ public class Configuration {
     public void setWebRoot(String webRoot) {
         this.webRoot = webRoot;
     }
+
+    public ExecutionModel getExecutionModel() {
+        return executionModel;
+    }
+
+    public void setExecutionModel(ExecutionModel executionModel) {
+        this.executionModel = executionModel;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public int getWorkerQueueSize() {
+        return workerQueueSize;
+    }
+
+    public void setWorkerQueueSize(int workerQueueSize) {
+        this.workerQueueSize = workerQueueSize;
+    }
+
+    public ServerEngine getEngine() {
+        return engine;
+    }
+
+    public void setEngine(ServerEngine engine) {
+        this.engine = engine;
+    }
+
+    public int getEventLoopThreads() {
+        return eventLoopThreads;
+    }
+
+    public void setEventLoopThreads(int eventLoopThreads) {
+        this.eventLoopThreads = eventLoopThreads;
+    }
+
+    public int getKeepAliveTimeout() {
+        return keepAliveTimeout;
+    }
+
+    public void setKeepAliveTimeout(int keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+    public int getMaxKeepAliveRequests() {
+        return maxKeepAliveRequests;
+    }
+
+    public void setMaxKeepAliveRequests(int maxKeepAliveRequests) {
+        this.maxKeepAliveRequests = maxKeepAliveRequests;
+    }
+
+    public int getWriteTimeout() {
+        return writeTimeout;
+    }
+
+    public void setWriteTimeout(int writeTimeout) {
+        this.writeTimeout = writeTimeout;
+    }
+
+    public int getMaxUriLength() {
+        return maxUriLength;
+    }
+
+    public void setMaxUriLength(int maxUriLength) {
+        this.maxUriLength = maxUriLength;
+    }
+
+    public int getMaxHeaderSize() {
+        return maxHeaderSize;
+    }
+
+    public void setMaxHeaderSize(int maxHeaderSize) {
+        this.maxHeaderSize = maxHeaderSize;
+    }
+
+    public int getMaxHeaderCount() {
+        return maxHeaderCount;
+    }
+
+    public void setMaxHeaderCount(int maxHeaderCount) {
+        this.maxHeaderCount = maxHeaderCount;
+    }
+
+    public long getMaxBodySize() {
+        return maxBodySize;
+    }
+
+    public void setMaxBodySize(long maxBodySize) {
+        this.maxBodySize = maxBodySize;
+    }
+
+    public int getBodyMemoryThreshold() {
+        return bodyMemoryThreshold;
+    }
+
+    public void setBodyMemoryThreshold(int bodyMemoryThreshold) {
+        this.bodyMemoryThreshold = bodyMemoryThreshold;
+    }
+
+    public long getStaticCacheSize() {
+        return staticCacheSize;
+    }
+
+    public void setStaticCacheSize(long staticCacheSize) {
+        this.staticCacheSize = staticCacheSize;
+    }
+
+    public int getStaticCacheMaxEntries() {
+        return staticCacheMaxEntries;
+    }
+
+    public void setStaticCacheMaxEntries(int staticCacheMaxEntries) {
+        this.staticCacheMaxEntries = staticCacheMaxEntries;
+    }
+
+    public int getStaticCacheMaxFileSize() {
+        return staticCacheMaxFileSize;
+    }
+
+    public void setStaticCacheMaxFileSize(int staticCacheMaxFileSize) {
+        this.staticCacheMaxFileSize = staticCacheMaxFileSize;
+    }
+
+    public long getStaticCacheRevalidateInterval() {
+        return staticCacheRevalidateInterval;
+    }
+
+    public void setStaticCacheRevalidateInterval(long staticCacheRevalidateInterval) {
+        this.staticCacheRevalidateInterval = staticCacheRevalidateInterval;
+    }
+
+    public long getStaticCacheMaxMappedFileSize() {
+        return staticCacheMaxMappedFileSize;
+    }
+
+    public void setStaticCacheMaxMappedFileSize(long staticCacheMaxMappedFileSize) {
+        this.staticCacheMaxMappedFileSize = staticCacheMaxMappedFileSize;
+    }
+
+    public int getStaticCacheMaxMappings() {
+        return staticCacheMaxMappings;
+    }
+
+    public void setStaticCacheMaxMappings(int staticCacheMaxMappings) {
+        this.staticCacheMaxMappings = staticCacheMaxMappings;
+    }
+
+    public boolean isCompressionEnabled() {
+        return compressionEnabled;
+    }
+
+    public void setCompressionEnabled(boolean compressionEnabled) {
+        this.compressionEnabled = compressionEnabled;
+    }
+
+    public long getCompressionMinSize() {
+        return compressionMinSize;
+    }
+
+    public void setCompressionMinSize(long compressionMinSize) {
+        this.compressionMinSize = compressionMinSize;
+    }
+
+    public long getCompressionMaxSize() {
+        return compressionMaxSize;
+    }
+
+    public void setCompressionMaxSize(long compressionMaxSize) {
+        this.compressionMaxSize = compressionMaxSize;
+    }
+
+    public List<String> getCompressibleMimeTypes() {
+        return compressibleMimeTypes;
+    }
+
+    public void setCompressibleMimeTypes(List<String> compressibleMimeTypes) {
+        this.compressibleMimeTypes = compressibleMimeTypes;
+    }
+
+    public String getStaticCacheControl() {
+        return staticCacheControl;
+    }
+
+    public void setStaticCacheControl(String staticCacheControl) {
+        this.staticCacheControl = staticCacheControl;
+    }
+
+    public int getBufferPoolMaxPerSizeClass() {
+        return bufferPoolMaxPerSizeClass;
+    }
+
+    public void setBufferPoolMaxPerSizeClass(int bufferPoolMaxPerSizeClass) {
+        this.bufferPoolMaxPerSizeClass = bufferPoolMaxPerSizeClass;
+    }
+
+    public int getBufferPoolThreadCacheSize() {
+        return bufferPoolThreadCacheSize;
+    }
+
+    public void setBufferPoolThreadCacheSize(int bufferPoolThreadCacheSize) {
+        this.bufferPoolThreadCacheSize = bufferPoolThreadCacheSize;
+    }
+
+    public boolean isBufferPoolLeakDetection() {
+        return bufferPoolLeakDetection;
+    }
+
+    public void setBufferPoolLeakDetection(boolean bufferPoolLeakDetection) {
+        this.bufferPoolLeakDetection = bufferPoolLeakDetection;
+    }
+
+    public boolean isAccessLogEnabled() {
+        return accessLogEnabled;
+    }
+
+    public void setAccessLogEnabled(boolean accessLogEnabled) {
+        this.accessLogEnabled = accessLogEnabled;
+    }
+
+    public String getAccessLogFile() {
+        return accessLogFile;
+    }
+
+    public void setAccessLogFile(String accessLogFile) {
+        this.accessLogFile = accessLogFile;
+    }
+
+    public int getAccessLogBufferSize() {
+        return accessLogBufferSize;
+    }
+
+    public void setAccessLogBufferSize(int accessLogBufferSize) {
+        this.accessLogBufferSize = accessLogBufferSize;
+    }
+
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    public String getMetricsPath() {
+        return metricsPath;
+    }
+
+    public void setMetricsPath(String metricsPath) {
+        this.metricsPath = metricsPath;
+    }
+
+    public boolean isMetricsAllowRemote() {
+        return metricsAllowRemote;
+    }
+
+    public void setMetricsAllowRemote(boolean metricsAllowRemote) {
+        this.metricsAllowRemote = metricsAllowRemote;
+    }
+
+    public int getMetricsLatencyWindow() {
+        return metricsLatencyWindow;
+    }
+
+    public void setMetricsLatencyWindow(int metricsLatencyWindow) {
+        this.metricsLatencyWindow = metricsLatencyWindow;
+    }
+
+    public int getAcceptorThreads() {
+        return acceptorThreads;
+    }
+
+    public void setAcceptorThreads(int acceptorThreads) {
+        this.acceptorThreads = acceptorThreads;
+    }
+
+    public int getAcceptBacklog() {
+        return acceptBacklog;
+    }
+
+    public void setAcceptBacklog(int acceptBacklog) {
+        this.acceptBacklog = acceptBacklog;
+    }
+
+    public boolean isTcpNoDelay() {
+        return tcpNoDelay;
+    }
+
+    public void setTcpNoDelay(boolean tcpNoDelay) {
+        this.tcpNoDelay = tcpNoDelay;
+    }
+
+    public int getSocketSendBufferSize() {
+        return socketSendBufferSize;
+    }
+
+    public void setSocketSendBufferSize(int socketSendBufferSize) {
+        this.socketSendBufferSize = socketSendBufferSize;
+    }
+
+    public int getSocketReceiveBufferSize() {
+        return socketReceiveBufferSize;
+    }
+
+    public void setSocketReceiveBufferSize(int socketReceiveBufferSize) {
+        this.socketReceiveBufferSize = socketReceiveBufferSize;
+    }
+
+    public AdmissionController.Mode getAdmissionControl() {
+        return admissionControl;
+    }
+
+    public void setAdmissionControl(AdmissionController.Mode admissionControl) {
+        this.admissionControl = admissionControl;
+    }
+
+    public int getMaxInFlightRequests() {
+        return maxInFlightRequests;
+    }
+
+    public void setMaxInFlightRequests(int maxInFlightRequests) {
+        this.maxInFlightRequests = maxInFlightRequests;
+    }
+
+    public int getAdmissionMinLimit() {
+        return admissionMinLimit;
+    }
+
+    public void setAdmissionMinLimit(int admissionMinLimit) {
+        this.admissionMinLimit = admissionMinLimit;
+    }
+
+    public long getAdmissionLatencyTarget() {
+        return admissionLatencyTarget;
+    }
+
+    public void setAdmissionLatencyTarget(long admissionLatencyTarget) {
+        this.admissionLatencyTarget = admissionLatencyTarget;
+    }
+
+    public int getAdmissionRetryAfter() {
+        return admissionRetryAfter;
+    }
+
+    public void setAdmissionRetryAfter(int admissionRetryAfter) {
+        this.admissionRetryAfter = admissionRetryAfter;
+    }
+
+    public boolean isRateLimitEnabled() {
+        return rateLimitEnabled;
+    }
+
+    public void setRateLimitEnabled(boolean rateLimitEnabled) {
+        this.rateLimitEnabled = rateLimitEnabled;
+    }
+
+    public double getRateLimitRequestsPerSecond() {
+        return rateLimitRequestsPerSecond;
+    }
+
+    public void setRateLimitRequestsPerSecond(double rateLimitRequestsPerSecond) {
+        this.rateLimitRequestsPerSecond = rateLimitRequestsPerSecond;
+    }
+
+    public int getRateLimitBurst() {
+        return rateLimitBurst;
+    }
+
+    public void setRateLimitBurst(int rateLimitBurst) {
+        this.rateLimitBurst = rateLimitBurst;
+    }
+
+    public boolean isRateLimitPerRoute() {
+        return rateLimitPerRoute;
+    }
+
+    public void setRateLimitPerRoute(boolean rateLimitPerRoute) {
+        this.rateLimitPerRoute = rateLimitPerRoute;
+    }
+
+    public int getRateLimitMaxClients() {
+        return rateLimitMaxClients;
+    }
+
+    public void setRateLimitMaxClients(int rateLimitMaxClients) {
+        this.rateLimitMaxClients = rateLimitMaxClients;
+    }
+
+    public long getRateLimitIdleTimeout() {
+        return rateLimitIdleTimeout;
+    }
+
+    public void setRateLimitIdleTimeout(long rateLimitIdleTimeout) {
+        this.rateLimitIdleTimeout = rateLimitIdleTimeout;
+    }
+
+    public RateLimiter.Overflow getRateLimitOverflow() {
+        return rateLimitOverflow;
+    }
+
+    public void setRateLimitOverflow(RateLimiter.Overflow rateLimitOverflow) {
+        this.rateLimitOverflow = rateLimitOverflow;
+    }
 }
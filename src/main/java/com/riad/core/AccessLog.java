@@ -0,0 +1,241 @@
+package com.riad.core;
+
+import com.riad.config.Configuration;
+import com.riad.http.HttpMethod;
+import com.riad.util.CoarseClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * One line per request: time, client, method, target, status, body bytes and latency, as {@code key=value} pairs.
+ * <p>
+ * Connections only copy a few fields into a preallocated slot of a ring buffer, claimed with a CAS, and go on;
+ * a background thread formats the published slots and writes them in batches, to a file or to the
+ * {@code access} logger. When the writer falls behind and the ring is full, entries are dropped and counted
+ * rather than slowing the requests down.
+ */
+public class AccessLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessLog.class);
+    private static final Logger ACCESS_LOGGER = LoggerFactory.getLogger("access");
+
+    public static final AccessLog DISABLED = new AccessLog();
+
+    private static final int MAX_BATCH = 256;
+    private static final long IDLE_WAIT_NANOS = 5_000_000;
+
+    private static final class Entry {
+        // Sequence of the entry this slot holds once it is published, readable by the writer from then on
+        volatile long published = -1;
+        long time;
+        InetAddress remote;
+        HttpMethod method;
+        String target;
+        int status;
+        long bytes;
+        long latencyNanos;
+    }
+
+    private final boolean enabled;
+    private final Entry[] ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    // Next sequence the writer reads, slots before it can be reused
+    private volatile long consumed = 0;
+    private final LongAdder dropped = new LongAdder();
+
+    private final Writer out;
+    private final Thread writer;
+    private volatile boolean running = true;
+
+    private AccessLog() {
+        this.enabled = false;
+        this.ring = null;
+        this.mask = 0;
+        this.out = null;
+        this.writer = null;
+    }
+
+    /**
+     * @param capacity number of entries the ring holds, rounded up to a power of two.
+     * @param out where the lines go, or null for the {@code access} logger.
+     */
+    public AccessLog(int capacity, Writer out) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.enabled = true;
+        this.ring = new Entry[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = new Entry();
+        }
+        this.mask = size - 1;
+        this.out = out;
+        this.writer = new Thread(this::drain, "access-log");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    public static AccessLog fromConfiguration(Configuration conf) throws IOException {
+        if (!conf.isAccessLogEnabled()) {
+            return DISABLED;
+        }
+        Writer out = null;
+        if (conf.getAccessLogFile() != null && !conf.getAccessLogFile().isEmpty()) {
+            out = Files.newBufferedWriter(Path.of(conf.getAccessLogFile()), StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.WRITE);
+        }
+        return new AccessLog(conf.getAccessLogBufferSize(), out);
+    }
+
+    /**
+     * Callers skip measuring the latency when this is false.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Records a request, without blocking.
+     *
+     * @param method null if the request could not be parsed.
+     * @param target null if the request could not be parsed.
+     */
+    public void log(InetAddress remote, HttpMethod method, String target, int status, long bytes, long latencyNanos) {
+        if (!enabled) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed >= ring.length) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        Entry entry = ring[(int) sequence & mask];
+        entry.time = CoarseClock.currentTimeMillis();
+        entry.remote = remote;
+        entry.method = method;
+        entry.target = target;
+        entry.status = status;
+        entry.bytes = bytes;
+        entry.latencyNanos = latencyNanos;
+        entry.published = sequence;
+    }
+
+    /**
+     * @return the entries lost because the ring was full.
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void drain() {
+        StringBuilder batch = new StringBuilder(MAX_BATCH * 128);
+        boolean unflushed = false;
+        while (true) {
+            long next = consumed;
+            int count = 0;
+            Entry entry;
+            while (count < MAX_BATCH && (entry = ring[(int) next & mask]).published == next) {
+                format(entry, batch);
+                entry.remote = null;
+                entry.target = null;
+                next++;
+                count++;
+            }
+
+            if (count > 0) {
+                consumed = next;
+                write(batch);
+                batch.setLength(0);
+                unflushed = true;
+                continue;
+            }
+            if (unflushed) {
+                flush();
+                unflushed = false;
+            }
+            if (!running) {
+                return;
+            }
+            LockSupport.parkNanos(IDLE_WAIT_NANOS);
+        }
+    }
+
+    private static void format(Entry entry, StringBuilder line) {
+        line.append("time=").append(Instant.ofEpochMilli(entry.time))
+                .append(" remote=").append(entry.remote == null ? "-" : entry.remote.getHostAddress())
+                .append(" method=").append(entry.method == null ? "-" : entry.method.name())
+                .append(" target=\"");
+        String target = entry.target == null ? "-" : entry.target;
+        for (int i = 0; i < target.length(); i++) {
+            char c = target.charAt(i);
+            // Keeps one request per line whatever the client sent
+            line.append(c == '"' || c < 0x20 ? '?' : c);
+        }
+        line.append("\" status=").append(entry.status)
+                .append(" bytes=").append(entry.bytes)
+                .append(" latency_us=").append(entry.latencyNanos / 1000)
+                .append('\n');
+    }
+
+    private void write(StringBuilder batch) {
+        try {
+            if (out != null) {
+                out.append(batch);
+            } else {
+                batch.setLength(batch.length() - 1);
+                ACCESS_LOGGER.info("{}", batch);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Could not write the access log", e);
+        }
+    }
+
+    private void flush() {
+        if (out != null) {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                LOGGER.error("Could not write the access log", e);
+            }
+        }
+    }
+
+    /**
+     * Writes what is left in the ring and stops the writer thread.
+     */
+    public void close() {
+        if (!enabled || !running) {
+            return;
+        }
+        running = false;
+        try {
+            writer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {}
+        }
+        if (getDropped() > 0) {
+            LOGGER.warn("{} access log entries were dropped, the ring buffer was full", getDropped());
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.riad.core;
+
+import com.riad.config.Configuration;
+import com.riad.http.CannedResponse;
+import com.riad.http.HttpHeaderName;
+import com.riad.http.HttpResponse;
+import com.riad.http.HttpStatusCode;
+import com.riad.http.HttpVersion;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Caps the number of requests in flight, from the time their head is parsed to the end of their response, and
+ * sheds the others at once with a canned {@code 503} and {@code Retry-After}, closing their connection.
+ * Shared by every connection of the server.
+ * <p>
+ * Past the point where the server is saturated, admitting more requests only makes every one of them slower;
+ * refusing the excess keeps the admitted ones fast, so goodput stays flat under overload.
+ * The limit is either fixed, or adapted to the latency of the admitted requests (AIMD): it grows by one while
+ * requests keep it at least half used and stay under the latency target, and is cut by 10% (at most once per
+ * target period) when one goes over. The latency is the time the server took to handle the request, not the time
+ * the client took to read the response: slow downloads of large files say nothing of the load.
+ */
+public class AdmissionController {
+
+    public enum Mode {
+        /** Every request is admitted. */
+        OFF,
+        /** At most {@code maxInFlightRequests}. */
+        STATIC,
+        /** Between {@code admissionMinLimit} and {@code maxInFlightRequests}, following the latency. */
+        AIMD
+    }
+
+    private static final double BACKOFF_RATIO = 0.9;
+
+    public static final AdmissionController DISABLED = new AdmissionController(Mode.OFF, Integer.MAX_VALUE, 1, 0, 1);
+
+    private final Mode mode;
+    private final int maxLimit;
+    private final int minLimit;
+    private final long latencyTargetNanos;
+
+    private final AtomicInteger limit;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong lastDecreaseNanos = new AtomicLong(System.nanoTime());
+    private final LongAdder rejected = new LongAdder();
+    private final CannedResponse overloaded;
+
+    /**
+     * @param latencyTargetMillis only used by {@link Mode#AIMD}.
+     * @param retryAfterSeconds   sent in the Retry-After header of the 503.
+     */
+    public AdmissionController(Mode mode, int maxLimit, int minLimit, long latencyTargetMillis, int retryAfterSeconds) {
+        this.mode = mode;
+        this.maxLimit = Math.max(1, maxLimit);
+        this.minLimit = Math.max(1, Math.min(minLimit, this.maxLimit));
+        this.latencyTargetNanos = latencyTargetMillis * 1_000_000;
+        this.limit = new AtomicInteger(this.maxLimit);
+        this.overloaded = new CannedResponse(new HttpResponse.Builder()
+                .httpVersion(HttpVersion.HTTP_1_1.LITERAL)
+                .statusCode(HttpStatusCode.SERVER_ERROR_503_SERVICE_UNAVAILABLE)
+                .addHeader(HttpHeaderName.RETRY_AFTER.headerName, Integer.toString(retryAfterSeconds))
+                .addHeader(HttpHeaderName.CONNECTION.headerName, "close")
+                .build());
+    }
+
+    public static AdmissionController fromConfiguration(Configuration conf) {
+        if (conf.getAdmissionControl() == Mode.OFF) {
+            return DISABLED;
+        }
+        // By default as many as the workers: the blocking engine never has more requests in flight than threads
+        int maxLimit = conf.getMaxInFlightRequests() > 0 ? conf.getMaxInFlightRequests() : conf.getWorkerThreads();
+        return new AdmissionController(conf.getAdmissionControl(), maxLimit,
+                conf.getAdmissionMinLimit(), conf.getAdmissionLatencyTarget(), conf.getAdmissionRetryAfter());
+    }
+
+    public boolean isEnabled() {
+        return mode != Mode.OFF;
+    }
+
+    /**
+     * Admits a request, or refuses it if the limit is reached. An admitted request must be {@link #release released}.
+     */
+    public boolean tryAcquire() {
+        if (mode == Mode.OFF) {
+            return true;
+        }
+        while (true) {
+            int current = inFlight.get();
+            if (current >= limit.get()) {
+                rejected.increment();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @param latencyNanos from the admission of the request to the end of its handling, its response written
+     *                     or not.
+     */
+    public void release(long latencyNanos) {
+        if (mode == Mode.OFF) {
+            return;
+        }
+        int wasInFlight = inFlight.getAndDecrement();
+        if (mode != Mode.AIMD) {
+            return;
+        }
+
+        int current = limit.get();
+        if (latencyNanos > latencyTargetNanos) {
+            long now = System.nanoTime();
+            long last = lastDecreaseNanos.get();
+            // Requests admitted before the last cut are still draining, one cut per period is enough
+            if (now - last >= latencyTargetNanos && lastDecreaseNanos.compareAndSet(last, now)) {
+                limit.set(Math.max(minLimit, (int) (current * BACKOFF_RATIO)));
+            }
+        } else if (current < maxLimit && wasInFlight * 2 >= current) {
+            limit.compareAndSet(current, current + 1);
+        }
+    }
+
+    /**
+     * @return the 503 sent to refused requests, encoded.
+     */
+    public CannedResponse getOverloadedResponse() {
+        return overloaded;
+    }
+
+    public int getLimit() {
+        return mode == Mode.OFF ? 0 : limit.get();
+    }
+
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
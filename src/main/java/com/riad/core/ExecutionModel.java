@@ -0,0 +1,63 @@
+package com.riad.core;
+
+import com.riad.config.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Strategy used to run the connection tasks handed over by the listener.
+ */
+public enum ExecutionModel {
+
+    /**
+     * A fixed number of platform threads in front of a bounded queue.
+     * Connections that don't fit in the queue are rejected.
+     */
+    POOL,
+
+    /**
+     * One virtual thread per connection. Needs a JVM that ships virtual threads (21+),
+     * otherwise we fall back to {@link #POOL}.
+     */
+    VIRTUAL;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExecutionModel.class);
+
+    public ExecutorService newExecutor(Configuration conf) {
+        if (this == VIRTUAL) {
+            try {
+                Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) factory.invoke(null);
+            } catch (ReflectiveOperationException e) {
+                LOGGER.warn("Virtual threads are not available on this JVM, falling back to a bounded pool");
+            }
+        }
+
+        return new ThreadPoolExecutor(
+                conf.getWorkerThreads(),
+                conf.getWorkerThreads(),
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(conf.getWorkerQueueSize()),
+                new WorkerThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    private static class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            return new Thread(task, "http-worker-" + counter.incrementAndGet());
+        }
+    }
+}
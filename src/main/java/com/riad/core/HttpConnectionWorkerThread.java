@@ -1,61 +1,170 @@
 package com.riad.core;
 
-import com.fasterxml.jackson.core.JsonParseException;
-import com.riad.core.io.ReadFileException;
-import com.riad.core.io.WebRootHandler;
+import com.riad.core.metrics.ServerMetrics;
 import com.riad.http.*;
-import com.riad.util.Json;
+import com.riad.util.BufferPool;
+import com.riad.util.PooledBuffer;
+import com.riad.util.PooledOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
 
-public class HttpConnectionWorkerThread extends Thread {
+public class HttpConnectionWorkerThread implements Runnable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(HttpConnectionWorkerThread.class);
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+    private static final int HEAD_BUFFER_SIZE = 4 * 1024;
     private Socket socket;
-    private WebRootHandler webRootHandler;
-    private HttpParser httpParser = new HttpParser();
-
-    public HttpConnectionWorkerThread(Socket socket , WebRootHandler webRootHandler) {
+    private HttpRequestHandler requestHandler;
+    private KeepAlivePolicy keepAlivePolicy;
+    private HttpParser httpParser;
+    private BufferPool bufferPool;
+    private AccessLog accessLog;
+    private ServerMetrics metrics;
+    private AdmissionController admission;
+    private RateLimiter rateLimiter;
+    // Response heads are encoded here, then copied once into the output buffer
+    private PooledBuffer headBuffer;
+
+    public HttpConnectionWorkerThread(Socket socket , HttpRequestHandler requestHandler, KeepAlivePolicy keepAlivePolicy,
+                                      HttpParser httpParser, BufferPool bufferPool, AccessLog accessLog,
+                                      ServerMetrics metrics, AdmissionController admission,
+                                      RateLimiter rateLimiter) {
         this.socket = socket;
-        this.webRootHandler = webRootHandler;
+        this.requestHandler = requestHandler;
+        this.keepAlivePolicy = keepAlivePolicy;
+        this.httpParser = httpParser;
+        this.bufferPool = bufferPool;
+        this.accessLog = accessLog;
+        this.metrics = metrics;
+        this.admission = admission;
+        this.rateLimiter = rateLimiter;
     }
 
     @Override
     public void run() {
         InputStream inputStream  = null;
         OutputStream outputStream = null;
+        metrics.connectionOpened();
 
         try {
+            socket.setSoTimeout(keepAlivePolicy.getIdleTimeoutMillis());
+            // HttpParser does its own buffering
             inputStream = socket.getInputStream();
-            outputStream = socket.getOutputStream();
-
-            HttpRequest request = httpParser.parseHttpRequest(inputStream);
-            HttpResponse response = handleRequest(request);
+            outputStream = new PooledOutputStream(socket.getOutputStream(), bufferPool, WRITE_BUFFER_SIZE);
 
-            outputStream.write(response.getResponseBytes());
+            int handledRequests = 0;
+            boolean keepAlive = true;
+            while (keepAlive) {
+                HttpRequest request;
+                metrics.connectionIdle();
+                try {
+                    request = httpParser.parseHttpRequest(inputStream);
+                } finally {
+                    metrics.connectionBusy();
+                }
+                if (request == null) {
+                    break; // The client closed the connection
+                }
+                handledRequests++;
+                request.setRemoteAddress(socket.getInetAddress());
+                // Over its limit or overloaded: answered at once, and closed since the body was left unread
+                if (!rateLimiter.tryAcquire(socket.getInetAddress(), rateLimiter.isPerRoute() ? requestHandler.routeOf(request) : null)) {
+                    reject(request, rateLimiter.getTooManyRequestsResponse(), outputStream);
+                    break;
+                }
+                if (!admission.tryAcquire()) {
+                    reject(request, admission.getOverloadedResponse(), outputStream);
+                    break;
+                }
+                boolean timed = accessLog.isEnabled() || metrics.isEnabled() || admission.isEnabled();
+                long start = timed ? System.nanoTime() : 0;
+                long handled = 0;
+                try {
+                    HttpResponse response;
+                    boolean handlerFailed = false;
+                    try {
+                        response = requestHandler.handleRequest(request);
+                    } catch (UncheckedIOException e) {
+                        // Reading the body failed, the client timed out or went away
+                        throw e.getCause();
+                    } catch (HttpParsingException e) {
+                        throw e;
+                    } catch (RuntimeException e) {
+                        // Answered, rather than losing the pool thread and resetting the connection
+                        LOGGER.error("Error handling request", e);
+                        response = requestHandler.handleInternalError(e);
+                        handlerFailed = true;
+                    }
+                    // Even when the handler answered anyway, the rest of a body that failed can't be skipped
+                    keepAlive = !handlerFailed && !httpParser.isBodyFailed()
+                            && keepAlivePolicy.shouldKeepAlive(request, handledRequests);
+                    keepAlivePolicy.apply(response, keepAlive);
+                    handled = timed ? System.nanoTime() : 0;
+
+                    // Counted before the file body is sent, which consumes it
+                    long bodyLength = response.getBodyLength();
+                    int headLength = writeResponse(response, outputStream);
+                    if (!response.getFileBody().isEmpty()) {
+                        writeFileBody(response.getFileBody(), outputStream);
+                    }
+                    long end = timed ? System.nanoTime() : 0;
+
+                    if (metrics.isEnabled()) {
+                        metrics.recordParse(start - httpParser.getRequestStartNanos());
+                        metrics.recordHandle(handled - start);
+                        metrics.recordWrite(end - handled);
+                        metrics.recordRequest(request, response);
+                        metrics.addBytesSent(headLength + bodyLength);
+                    }
+                    if (accessLog.isEnabled()) {
+                        accessLog.log(socket.getInetAddress(), request.getMethod(), request.getRequestTarget(),
+                                response.getStatusCode().STATUS_CODE, bodyLength, end - start);
+                    }
+
+                    // When the client pipelined more requests, their responses join this one in a single write
+                    if (!keepAlive || !httpParser.hasBufferedData() && inputStream.available() == 0) {
+                        outputStream.flush();
+                    }
+                } finally {
+                    // In flight until written, the worker is busy until then, but the latency is the handling's only
+                    admission.release(admission.isEnabled() ? (handled != 0 ? handled : System.nanoTime()) - start : 0);
+                }
+            }
 
-            LOGGER.info(" * Connection Processing Finished.");
+            LOGGER.debug(" * Connection Processing Finished.");
+        } catch (SocketTimeoutException e) {
+            LOGGER.debug("Connection idle for too long, closing it");
         } catch (IOException e) {
             LOGGER.error("Problem with communication", e);
         } catch (HttpParsingException e) {
-            LOGGER.info("Bag Request", e);
+            LOGGER.debug("Bag Request", e);
 
-            HttpResponse response = new HttpResponse.Builder()
-                    .httpVersion(HttpVersion.HTTP_1_1.LITERAL)
-                    .statusCode(e.getErrorCode())
-                    .build();
+            HttpResponse response = requestHandler.handleParsingError(e);
+            keepAlivePolicy.apply(response, false);
             try {
-                outputStream.write(response.getResponseBytes());
+                int headLength = writeResponse(response, outputStream);
+                outputStream.flush();
+                metrics.recordRequest(null, response);
+                metrics.addBytesSent(headLength);
+                accessLog.log(socket.getInetAddress(), null, null, response.getStatusCode().STATUS_CODE, 0, 0);
             } catch (IOException ex) {
                 LOGGER.error("Problem with communication", e);
             }
 
+        } catch (RuntimeException e) {
+            // Past the handler, e.g. while writing the response: nothing more can be sent, the connection is closed
+            LOGGER.error("Connection failed", e);
         } finally {
             if (inputStream!= null) {
                 try {
@@ -72,161 +181,65 @@ public class HttpConnectionWorkerThread extends Thread {
                     socket.close();
                 } catch (IOException e) {}
             }
+            metrics.addBytesReceived(httpParser.getBytesRead());
+            metrics.connectionClosed();
+            httpParser.release();
+            if (headBuffer != null) {
+                headBuffer.release();
+                headBuffer = null;
+            }
         }
     }
 
-    private HttpResponse handleRequest(HttpRequest request) {
-        return switch (request.getMethod()) {
-            case GET -> {
-                LOGGER.info(" * GET Request");
-                yield handleGetRequest(request, true);
-            }
-            case HEAD -> {
-                LOGGER.info(" * HEAD Request");
-                yield handleGetRequest(request, false);
-            }
-            case POST -> {
-                LOGGER.info(" * POST Request");
-                yield handlePostRequest(request);
-            }
-            case PUT -> {
-                LOGGER.info(" * PUT Request");
-                yield handlePutRequest(request);
-            }
-            case DELETE -> {
-                LOGGER.info(" * DELETE Request");
-                yield handleDeleteRequest(request);
-            }
-            default -> new HttpResponse.Builder()
-                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
-                    .statusCode(HttpStatusCode.SERVER_ERROR_501_NOT_IMPLEMENTED)
-                    .build();
-        };
-
+    private void reject(HttpRequest request, CannedResponse rejection, OutputStream outputStream) throws IOException {
+        byte[] bytes = rejection.bytes();
+        outputStream.write(bytes);
+        outputStream.flush();
+        metrics.recordRequest(request, rejection.getResponse());
+        metrics.addBytesSent(bytes.length);
+        accessLog.log(socket.getInetAddress(), request.getMethod(), request.getRequestTarget(),
+                rejection.getResponse().getStatusCode().STATUS_CODE, 0, 0);
     }
 
-    private HttpResponse handlePostRequest(HttpRequest request) {
-        try {
-            byte[] body = request.getMessageBody();
-            String content = new String(body);
-
-            if (body == null || content.isEmpty() || Json.parse(content).isValueNode()) {
-                return new HttpResponse.Builder()
-                        .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
-                        .statusCode(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST)
-                        .build();
+    /**
+     * @return the length of the head written.
+     */
+    private int writeResponse(HttpResponse response, OutputStream outputStream) throws IOException {
+        int headLength = response.getHeadLength();
+        if (headBuffer == null || headBuffer.buffer().capacity() < headLength) {
+            if (headBuffer != null) {
+                headBuffer.release();
             }
-
-            return new HttpResponse.Builder()
-                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
-                    .statusCode(HttpStatusCode.OK)
-                    .messageBody(body)
-                    .addHeader(HttpHeaderName.CONTENT_TYPE.headerName, "plain/text")
-                    .build();
-        }catch (JsonParseException e){
-            LOGGER.error("JSON Format incorrect", e);
-            return new HttpResponse.Builder()
-                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
-                    .statusCode(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST)
-                    .build();
-        }
-
-        catch(Exception e) {
-            LOGGER.error("Error processing POST request", e);
-            return new HttpResponse.Builder()
-                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
-                    .statusCode(HttpStatusCode.SERVER_ERROR_500_INTERNAL_SERVER_ERROR)
-                    .build();
+            headBuffer = bufferPool.acquire(Math.max(headLength, HEAD_BUFFER_SIZE));
         }
+        ByteBuffer head = headBuffer.buffer();
+        head.clear();
+        response.writeHead(head);
+        outputStream.write(head.array(), head.arrayOffset(), head.position());
+        outputStream.write(response.getMessageBody());
+        return headLength;
     }
 
-
-    private HttpResponse handlePutRequest(HttpRequest request) {
+    /**
+     * Sends a file body right after the response head. On a socket channel the copy is done by the
+     * kernel (sendfile); otherwise the file is streamed through a small buffer.
+     */
+    private void writeFileBody(List<FileRegion> fileBody, OutputStream outputStream) throws IOException {
         try {
-            byte[] body = request.getMessageBody();
-            String content = new String(body);
-            System.out.println("Test ; " + Json.parse(content).isValueNode());
-            if (body == null || content.isEmpty() || Json.parse(content).isValueNode()) {
-                return new HttpResponse.Builder()
-                        .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
-                        .statusCode(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST)
-                        .build();
+            // The head is still in the buffer
+            outputStream.flush();
+            WritableByteChannel target = socket.getChannel() != null
+                    ? socket.getChannel()
+                    : Channels.newChannel(outputStream);
+            for (FileRegion fileRegion : fileBody) {
+                while (!fileRegion.isDone()) {
+                    fileRegion.transferTo(target);
+                }
             }
-
-            String target = request.getRequestTarget();
-            LOGGER.info("PUT Target: {}, Body: {}", target, content);
-
-            return new HttpResponse.Builder()
-                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
-                    .statusCode(HttpStatusCode.OK)
-                    .messageBody("Resource updated".getBytes())
-                    .build();
-        }catch (JsonParseException e){
-            LOGGER.error("JSON Format incorrect", e);
-            return new HttpResponse.Builder()
-                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
-                    .statusCode(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST)
-                    .build();
-        }
-        catch (Exception e) {
-            LOGGER.error("Error processing PUT request", e);
-            return new HttpResponse.Builder()
-                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
-                    .statusCode(HttpStatusCode.SERVER_ERROR_500_INTERNAL_SERVER_ERROR)
-                    .build();
-        }
-    }
-
-
-    private HttpResponse handleDeleteRequest(HttpRequest request) {
-        try {
-            String target = request.getRequestTarget();
-            LOGGER.info("DELETE Target: {}", target);
-
-            return new HttpResponse.Builder()
-                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
-                    .statusCode(HttpStatusCode.OK)
-                    .messageBody("Resource deleted".getBytes())
-                    .build();
-        } catch (Exception e) {
-            LOGGER.error("Error processing DELETE request", e);
-            return new HttpResponse.Builder()
-                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
-                    .statusCode(HttpStatusCode.SERVER_ERROR_500_INTERNAL_SERVER_ERROR)
-                    .build();
-        }
-    }
-
-    private HttpResponse handleGetRequest(HttpRequest request, boolean setMessageBody) {
-        try {
-            LOGGER.debug("Method GET invoked");
-            HttpResponse.Builder builder = new HttpResponse.Builder()
-                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
-                    .statusCode(HttpStatusCode.OK)
-                    .addHeader(HttpHeaderName.CONTENT_TYPE.headerName, webRootHandler.getFileMimeType(request.getRequestTarget()));
-
-            if (setMessageBody) {
-                byte[] messageBody = webRootHandler.getFileByteArrayData(request.getRequestTarget());
-                builder.addHeader(HttpHeaderName.CONTENT_LENGTH.headerName, String.valueOf(messageBody.length))
-                        .messageBody(messageBody);
+        } finally {
+            for (FileRegion fileRegion : fileBody) {
+                fileRegion.close();
             }
-
-            return builder.build();
-
-        } catch (FileNotFoundException e) {
-
-            return new HttpResponse.Builder()
-                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
-                    .statusCode(HttpStatusCode.CLIENT_ERROR_404_NOT_FOUND)
-                    .build();
-
-        } catch (ReadFileException e) {
-
-            return new HttpResponse.Builder()
-                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
-                    .statusCode(HttpStatusCode.SERVER_ERROR_500_INTERNAL_SERVER_ERROR)
-                    .build();
         }
-
     }
 }
@@ -0,0 +1,184 @@
+package com.riad.core;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.riad.config.Configuration;
+import com.riad.core.io.CompressionPolicy;
+import com.riad.core.io.StaticContentCache;
+import com.riad.core.io.WebRootHandler;
+import com.riad.core.metrics.MetricsHandler;
+import com.riad.core.metrics.ServerMetrics;
+import com.riad.core.router.PathParams;
+import com.riad.core.router.Router;
+import com.riad.http.*;
+import com.riad.util.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Turns a parsed {@link HttpRequest} into an {@link HttpResponse} by dispatching it through a {@link Router}.
+ * Shared by every server engine, it holds no per-connection state.
+ */
+public class HttpRequestHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HttpRequestHandler.class);
+    private Router router;
+
+    public HttpRequestHandler(Router router) {
+        this.router = router;
+    }
+
+    /**
+     * The server's routes: the webroot is mounted for GET (and HEAD) on every path, more specific routes
+     * registered here take precedence over it.
+     */
+    public static HttpRequestHandler fromConfiguration(Configuration conf, ServerMetrics metrics) {
+        WebRootHandler webRootHandler = new WebRootHandler(conf.getWebRoot(), StaticContentCache.fromConfiguration(conf),
+                CompressionPolicy.fromConfiguration(conf));
+        StaticFileHandler staticFiles = new StaticFileHandler(webRootHandler, conf.getStaticCacheControl());
+        Router.Builder routes = new Router.Builder()
+                .get("/*", staticFiles)
+                .post("/*", HttpRequestHandler::handlePostRequest)
+                .put("/*", HttpRequestHandler::handlePutRequest)
+                .delete("/*", HttpRequestHandler::handleDeleteRequest);
+        if (metrics.isEnabled()) {
+            routes.get(conf.getMetricsPath(), new MetricsHandler(metrics, conf.isMetricsAllowRemote()));
+        }
+        return new HttpRequestHandler(routes.build());
+    }
+
+    public HttpResponse handleRequest(HttpRequest request) {
+        LOGGER.debug(" * {} Request", request.getMethod());
+        return router.dispatch(request);
+    }
+
+    /**
+     * @return the name of the route the request goes to, null if none.
+     */
+    public String routeOf(HttpRequest request) {
+        return router.routeOf(request);
+    }
+
+    public HttpResponse handleParsingError(HttpParsingException e) {
+        return new HttpResponse.Builder()
+                .httpVersion(HttpVersion.HTTP_1_1.LITERAL)
+                .statusCode(e.getErrorCode())
+                .build();
+    }
+
+    /**
+     * Answers a request whose handler threw; the connection should then be closed.
+     */
+    public HttpResponse handleInternalError(RuntimeException e) {
+        return new HttpResponse.Builder()
+                .httpVersion(HttpVersion.HTTP_1_1.LITERAL)
+                .statusCode(HttpStatusCode.SERVER_ERROR_500_INTERNAL_SERVER_ERROR)
+                .build();
+    }
+
+    private static HttpResponse handlePostRequest(HttpRequest request, PathParams params) {
+        try {
+            // Echoed back, so read in memory; validated from the bytes, without decoding them into a String
+            byte[] body = request.getMessageBody();
+            JsonToken root = Json.validate(body);
+
+            if (root == null || root.isScalarValue()) {
+                return new HttpResponse.Builder()
+                        .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                        .statusCode(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST)
+                        .build();
+            }
+
+            return new HttpResponse.Builder()
+                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                    .statusCode(HttpStatusCode.OK)
+                    .messageBody(body)
+                    .addHeader(HttpHeaderName.CONTENT_TYPE.headerName, "plain/text")
+                    .build();
+        }catch (JsonParseException e){
+            LOGGER.error("JSON Format incorrect", e);
+            return new HttpResponse.Builder()
+                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                    .statusCode(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST)
+                    .build();
+        }
+
+        catch (HttpParsingException | UncheckedIOException e) {
+            // The body could not be read (too large, truncated, timed out), the connection answers it and closes
+            throw e;
+        }
+        catch(Exception e) {
+            LOGGER.error("Error processing POST request", e);
+            return new HttpResponse.Builder()
+                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                    .statusCode(HttpStatusCode.SERVER_ERROR_500_INTERNAL_SERVER_ERROR)
+                    .build();
+        }
+    }
+
+
+    private static HttpResponse handlePutRequest(HttpRequest request, PathParams params) {
+        try {
+            // Validated as it is read from the connection, the body is never held in memory
+            JsonToken root = Json.validate(request.getBody().getInputStream());
+            if (root == null || root.isScalarValue()) {
+                return new HttpResponse.Builder()
+                        .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                        .statusCode(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST)
+                        .build();
+            }
+
+            String target = request.getRequestTarget();
+            LOGGER.debug("PUT Target: {}", target);
+
+            return new HttpResponse.Builder()
+                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                    .statusCode(HttpStatusCode.OK)
+                    .messageBody("Resource updated".getBytes())
+                    .build();
+        }catch (JsonParseException e){
+            LOGGER.error("JSON Format incorrect", e);
+            return new HttpResponse.Builder()
+                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                    .statusCode(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST)
+                    .build();
+        }
+        catch (HttpParsingException e) {
+            // The body could not be read (too large, truncated, timed out), the connection answers it and closes
+            throw e;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        catch (Exception e) {
+            LOGGER.error("Error processing PUT request", e);
+            return new HttpResponse.Builder()
+                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                    .statusCode(HttpStatusCode.SERVER_ERROR_500_INTERNAL_SERVER_ERROR)
+                    .build();
+        }
+    }
+
+
+    private static HttpResponse handleDeleteRequest(HttpRequest request, PathParams params) {
+        try {
+            String target = request.getRequestTarget();
+            LOGGER.debug("DELETE Target: {}", target);
+
+            return new HttpResponse.Builder()
+                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                    .statusCode(HttpStatusCode.OK)
+                    .messageBody("Resource deleted".getBytes())
+                    .build();
+        } catch (Exception e) {
+            LOGGER.error("Error processing DELETE request", e);
+            return new HttpResponse.Builder()
+                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                    .statusCode(HttpStatusCode.SERVER_ERROR_500_INTERNAL_SERVER_ERROR)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.riad.core;
+
+import com.riad.config.Configuration;
+import com.riad.http.HttpHeaderName;
+import com.riad.http.HttpRequest;
+import com.riad.http.HttpResponse;
+
+/**
+ * Decides whether a connection stays open after a response, shared by every server engine.
+ */
+public class KeepAlivePolicy {
+
+    private final int idleTimeoutMillis;
+    private final int maxRequestsPerConnection;
+    // Between two writes that make progress, while a response is waiting
+    private final int writeTimeoutMillis;
+
+    public KeepAlivePolicy(int idleTimeoutMillis, int maxRequestsPerConnection, int writeTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+        this.writeTimeoutMillis = writeTimeoutMillis;
+    }
+
+    public static KeepAlivePolicy fromConfiguration(Configuration conf) {
+        return new KeepAlivePolicy(conf.getKeepAliveTimeout(), conf.getMaxKeepAliveRequests(), conf.getWriteTimeout());
+    }
+
+    public int getIdleTimeoutMillis() {
+        return idleTimeoutMillis;
+    }
+
+    public int getWriteTimeoutMillis() {
+        return writeTimeoutMillis;
+    }
+
+    /**
+     * @param request the request that was just handled
+     * @param handledRequests number of requests handled on the connection, this one included
+     * @return true if the connection can wait for another request
+     */
+    public boolean shouldKeepAlive(HttpRequest request, int handledRequests) {
+        return request.isKeepAlive() && handledRequests < maxRequestsPerConnection;
+    }
+
+    /**
+     * Sets the Connection header so the client knows what we decided.
+     */
+    public void apply(HttpResponse response, boolean keepAlive) {
+        response.setHeader(HttpHeaderName.CONNECTION.headerName, keepAlive ? "keep-alive" : "close");
+    }
+}
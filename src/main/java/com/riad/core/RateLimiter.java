@@ -0,0 +1,233 @@
+package com.riad.core;
+
+import com.riad.config.Configuration;
+import com.riad.http.CannedResponse;
+import com.riad.http.HttpHeaderName;
+import com.riad.http.HttpResponse;
+import com.riad.http.HttpStatusCode;
+import com.riad.http.HttpVersion;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-client request rate limits: a token bucket per client IP, or per client IP and route, refilled at
+ * {@code rate} requests per second up to {@code burst}. Requests over the limit get a canned {@code 429} with
+ * {@code Retry-After}, and their connection is closed. Shared by every connection of the server.
+ * <p>
+ * A bucket is a single atomic long, its theoretical arrival time (GCRA): the time at which it will be full again.
+ * A request is one read and one CAS on its client's bucket, found in a {@link ConcurrentHashMap} whose bins are
+ * locked independently, so clients do not contend with each other. A bucket that is full again carries no state,
+ * it is dropped once idle for {@code idleTimeoutMillis}. A background thread sweeps the map every half of that,
+ * and at most every second while requests find it full, so a request never pays for the sweep. The map holds about
+ * {@code maxClients} buckets at most; until a sweep makes room, the clients without one are let through or
+ * refused, as the {@link Overflow} policy says.
+ */
+public class RateLimiter {
+
+    // A full map of clients that are all active would otherwise be swept back to back
+    private static final long MIN_SWEEP_INTERVAL_NANOS = 1_000_000_000;
+
+    public enum Overflow {
+        /** Requests of clients without a bucket are not limited. */
+        ALLOW,
+        /** Requests of clients without a bucket get the 429. */
+        REJECT
+    }
+
+    public static final RateLimiter DISABLED = new RateLimiter();
+
+    private final boolean enabled;
+    private final boolean perRoute;
+    // Nanoseconds between two tokens, and how far ahead of now a bucket can be before it is empty
+    private final long emissionIntervalNanos;
+    private final long burstToleranceNanos;
+    private final int maxClients;
+    private final long idleTimeoutNanos;
+    private final Overflow overflow;
+
+    // InetAddress, or ClientRoute when limiting per route -> theoretical arrival time (System.nanoTime)
+    private final ConcurrentHashMap<Object, AtomicLong> buckets;
+    private final ScheduledExecutorService sweeper;
+    // Set while a sweep is queued or running
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private volatile long lastSweepNanos = System.nanoTime();
+    private final LongAdder limited = new LongAdder();
+    private final CannedResponse tooManyRequests;
+
+    private record ClientRoute(InetAddress client, String route) {}
+
+    private RateLimiter() {
+        this.enabled = false;
+        this.perRoute = false;
+        this.emissionIntervalNanos = 0;
+        this.burstToleranceNanos = 0;
+        this.maxClients = 0;
+        this.idleTimeoutNanos = 0;
+        this.overflow = Overflow.ALLOW;
+        this.buckets = null;
+        this.sweeper = null;
+        this.tooManyRequests = null;
+    }
+
+    /**
+     * @param rate  requests per second a client is allowed on average.
+     * @param burst requests a client can send at once after being idle, at least 1.
+     * @param overflow what happens to the requests of clients that find the map full.
+     */
+    public RateLimiter(double rate, int burst, boolean perRoute, int maxClients, long idleTimeoutMillis,
+                       Overflow overflow) {
+        this.enabled = true;
+        this.perRoute = perRoute;
+        this.emissionIntervalNanos = Math.max(1, (long) (1e9 / rate));
+        this.burstToleranceNanos = emissionIntervalNanos * (Math.max(1, burst) - 1);
+        this.maxClients = Math.max(1, maxClients);
+        this.idleTimeoutNanos = idleTimeoutMillis * 1_000_000;
+        this.overflow = overflow;
+        this.buckets = new ConcurrentHashMap<>(Math.min(this.maxClients, 1024));
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "rate-limit-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long sweepIntervalMillis = Math.max(100, idleTimeoutMillis / 2);
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+        long retryAfterSeconds = Math.max(1, (emissionIntervalNanos + 999_999_999) / 1_000_000_000);
+        this.tooManyRequests = new CannedResponse(new HttpResponse.Builder()
+                .httpVersion(HttpVersion.HTTP_1_1.LITERAL)
+                .statusCode(HttpStatusCode.CLIENT_ERROR_429_TOO_MANY_REQUESTS)
+                .addHeader(HttpHeaderName.RETRY_AFTER.headerName, Long.toString(retryAfterSeconds))
+                .addHeader(HttpHeaderName.CONNECTION.headerName, "close")
+                .build());
+    }
+
+    public static RateLimiter fromConfiguration(Configuration conf) {
+        if (!conf.isRateLimitEnabled()) {
+            return DISABLED;
+        }
+        return new RateLimiter(conf.getRateLimitRequestsPerSecond(), conf.getRateLimitBurst(), conf.isRateLimitPerRoute(),
+                conf.getRateLimitMaxClients(), conf.getRateLimitIdleTimeout(), conf.getRateLimitOverflow());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Connections pass the route of the request only when this is true, finding it has a cost.
+     */
+    public boolean isPerRoute() {
+        return perRoute;
+    }
+
+    /**
+     * Takes a token from the client's bucket.
+     *
+     * @param route the route the request goes to when {@link #isPerRoute() limiting per route}, ignored otherwise.
+     * @return false if the client is over its limit.
+     */
+    public boolean tryAcquire(InetAddress client, String route) {
+        if (!enabled) {
+            return true;
+        }
+        long now = System.nanoTime();
+        AtomicLong bucket = bucketOf(perRoute ? new ClientRoute(client, route) : client, now);
+        if (bucket == null) {
+            if (overflow == Overflow.ALLOW) {
+                return true;
+            }
+            limited.increment();
+            return false;
+        }
+        while (true) {
+            long arrival = bucket.get();
+            long start = Math.max(arrival, now);
+            if (start - now > burstToleranceNanos) {
+                limited.increment();
+                return false;
+            }
+            if (bucket.compareAndSet(arrival, start + emissionIntervalNanos)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Looks without taking anything: lets listeners turn away, before it costs a worker, a client that
+     * already used up its bucket. Always false when limiting per route, the route is not known yet.
+     */
+    public boolean isExhausted(InetAddress client) {
+        if (!enabled || perRoute) {
+            return false;
+        }
+        AtomicLong bucket = buckets.get(client);
+        long now = System.nanoTime();
+        return bucket != null && bucket.get() - now > burstToleranceNanos;
+    }
+
+    /**
+     * @return the client's bucket, null if it has none and the map is full.
+     */
+    private AtomicLong bucketOf(Object key, long now) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket != null) {
+            return bucket;
+        }
+        // Concurrent new clients can take it a little past maxClients, not more
+        if (buckets.size() >= maxClients) {
+            requestSweep(now);
+            return null;
+        }
+        // Starts full
+        return buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+    }
+
+    /**
+     * Queues a sweep on the sweeper thread, unless one is queued or ran within the last second.
+     */
+    private void requestSweep(long now) {
+        if (now - lastSweepNanos >= MIN_SWEEP_INTERVAL_NANOS && sweeping.compareAndSet(false, true)) {
+            sweeper.execute(this::sweep);
+        }
+    }
+
+    /**
+     * Drops the buckets full again for the idle timeout. Only run on the sweeper thread.
+     */
+    private void sweep() {
+        try {
+            long now = System.nanoTime();
+            buckets.values().removeIf(bucket -> now - bucket.get() > idleTimeoutNanos);
+            lastSweepNanos = System.nanoTime();
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    /**
+     * @return the 429 sent to clients over their limit, encoded.
+     */
+    public CannedResponse getTooManyRequestsResponse() {
+        return tooManyRequests;
+    }
+
+    /**
+     * @return the requests refused since the start.
+     */
+    public long getLimited() {
+        return limited.sum();
+    }
+
+    /**
+     * @return the number of clients with a bucket.
+     */
+    public int getTrackedClients() {
+        return enabled ? buckets.size() : 0;
+    }
+}
@@ -0,0 +1,29 @@
+package com.riad.core;
+
+import com.riad.config.Configuration;
+import com.riad.core.nio.NioServerListenerThread;
+
+import java.io.IOException;
+
+/**
+ * The connection engine the server runs on.
+ */
+public enum ServerEngine {
+
+    /**
+     * Blocking sockets, one {@link HttpConnectionWorkerThread} task per connection run by the {@link ExecutionModel}.
+     */
+    BLOCKING,
+
+    /**
+     * Non-blocking channels multiplexed on a few selector threads, see {@link NioServerListenerThread}.
+     */
+    NIO;
+
+    public Thread newListener(Configuration conf) throws IOException {
+        if (this == NIO) {
+            return new NioServerListenerThread(conf);
+        }
+        return new ServerListenerThread(conf, conf.getExecutionModel().newExecutor(conf));
+    }
+}
@@ -1,52 +1,142 @@
 package com.riad.core;
 
-import com.riad.core.io.WebRootHandler;
+import com.riad.config.Configuration;
+import com.riad.http.CannedResponse;
+import com.riad.http.HttpParser;
+import com.riad.core.metrics.ServerMetrics;
+import com.riad.util.BufferPool;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
 import org.slf4j.Logger;
 
 public class ServerListenerThread extends Thread {
 
+    private Configuration conf;
     private int port;
     private String webroot;
-    private ServerSocket serverSocket;
-    private WebRootHandler webRootHandler;
+    // One per acceptor with SO_REUSEPORT, the first one is accepted on by this thread
+    private ServerSocketChannel[] serverChannels;
+    private TcpOptions tcpOptions;
+    private HttpRequestHandler requestHandler;
+    private ExecutorService workerPool;
+    private KeepAlivePolicy keepAlivePolicy;
+    // Heap buffers: the connections work with streams, which need arrays
+    private BufferPool bufferPool;
+    private AccessLog accessLog;
+    private ServerMetrics metrics;
+    private AdmissionController admission;
+    private RateLimiter rateLimiter;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ServerListenerThread.class);
 
-    public ServerListenerThread(int port, String webroot) throws IOException {
-        this.port = port;
-        this.webroot = webroot;
-        this.serverSocket = new ServerSocket(this.port);
-        this.webRootHandler = new WebRootHandler(this.webroot);
+    public ServerListenerThread(Configuration conf, ExecutorService workerPool) throws IOException {
+        this.conf = conf;
+        this.port = conf.getPort();
+        this.webroot = conf.getWebRoot();
+        // Opened as channels so accepted sockets have one too, which lets file bodies be sent with sendfile
+        this.tcpOptions = TcpOptions.fromConfiguration(conf);
+        this.serverChannels = tcpOptions.bind();
+        this.metrics = ServerMetrics.fromConfiguration(conf);
+        this.requestHandler = HttpRequestHandler.fromConfiguration(conf, metrics);
+        this.workerPool = workerPool;
+        if (workerPool instanceof ThreadPoolExecutor pool) {
+            metrics.setWorkerQueueDepth(() -> pool.getQueue().size());
+        }
+        this.keepAlivePolicy = KeepAlivePolicy.fromConfiguration(conf);
+        this.bufferPool = BufferPool.fromConfiguration(conf, false);
+        this.accessLog = AccessLog.fromConfiguration(conf);
+        this.admission = AdmissionController.fromConfiguration(conf);
+        metrics.setAdmission(admission::getInFlight, admission::getLimit);
+        this.rateLimiter = RateLimiter.fromConfiguration(conf);
+        metrics.setRateLimitedClients(rateLimiter::getTrackedClients);
     }
 
     @Override
     public void run() {
+        // Extra acceptors, sharing the single socket when SO_REUSEPORT is not available
+        for (int i = 1; i < tcpOptions.getAcceptors(); i++) {
+            ServerSocketChannel serverChannel = serverChannels[i % serverChannels.length];
+            Thread acceptor = new Thread(() -> {
+                try {
+                    accept(serverChannel);
+                } catch (IOException e) {
+                    if (serverChannel.isOpen()) {
+                        LOGGER.error("Problem with setting the socket", e);
+                    }
+                }
+            }, "http-acceptor-" + i);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
 
         try {
-            while (serverSocket.isBound() && !serverSocket.isClosed()) {
-                Socket socket = serverSocket.accept();
-
-                LOGGER.info("Connection Accepted " + socket.getInetAddress());
-
-                HttpConnectionWorkerThread thread = new HttpConnectionWorkerThread(socket , webRootHandler);
-                thread.start();
-            }
-
+            accept(serverChannels[0]);
         } catch (IOException e) {
             LOGGER.error("Problem with setting the socket", e);
         }finally {
-            if (serverSocket != null) {
+            for (ServerSocketChannel serverChannel : serverChannels) {
                 try {
-                    serverSocket.close();
+                    serverChannel.close();
                 } catch (IOException e) {}
             }
+            workerPool.shutdown();
+        }
+    }
+
+    private void accept(ServerSocketChannel serverChannel) throws IOException {
+        while (serverChannel.isOpen()) {
+            SocketChannel channel = serverChannel.accept();
+            Socket socket = channel.socket();
+
+            LOGGER.debug("Connection Accepted {}", socket.getInetAddress());
+
+            if (rateLimiter.isExhausted(socket.getInetAddress())) {
+                // Would be refused its first request, without taking a worker for it
+                reject(channel, rateLimiter.getTooManyRequestsResponse());
+                continue;
+            }
+            try {
+                tcpOptions.configure(channel);
+                workerPool.execute(new HttpConnectionWorkerThread(socket, requestHandler, keepAlivePolicy, newParser(),
+                        bufferPool, accessLog, metrics, admission, rateLimiter));
+            } catch (RejectedExecutionException e) {
+                // The pool and its queue are full, drop the connection instead of piling up more work
+                LOGGER.warn("Worker pool saturated, rejecting connection from {}", socket.getInetAddress());
+                reject(channel, admission.getOverloadedResponse());
+            } catch (IOException e) {
+                // Reset before we got to it
+                LOGGER.debug("Could not set up the connection from {}", socket.getInetAddress(), e);
+                try {
+                    socket.close();
+                } catch (IOException ex) {}
+            }
         }
     }
+
+    /**
+     * Answers a new connection with a canned response and closes it. The response fits in the socket buffer
+     * of a new connection, writing it does not block.
+     */
+    private void reject(SocketChannel channel, CannedResponse rejection) {
+        metrics.recordRequest(null, rejection.getResponse());
+        try {
+            channel.write(ByteBuffer.wrap(rejection.bytes()));
+        } catch (IOException e) {}
+        try {
+            channel.close();
+        } catch (IOException e) {}
+    }
+
+    private HttpParser newParser() {
+        return new HttpParser(conf.getMaxUriLength(), conf.getMaxHeaderSize(), conf.getMaxHeaderCount(), conf.getMaxBodySize(), bufferPool);
+    }
 }
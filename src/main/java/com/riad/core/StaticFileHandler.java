@@ -0,0 +1,192 @@
+package com.riad.core;
+
+import com.riad.core.io.ReadFileException;
+import com.riad.core.io.StaticResource;
+import com.riad.core.io.WebRootHandler;
+import com.riad.core.router.Handler;
+import com.riad.core.router.PathParams;
+import com.riad.http.*;
+
+import java.io.FileNotFoundException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Serves the files of the webroot for GET and HEAD: content negotiation, validators, conditional and range requests.
+ * Mounted on a wildcard route, it resolves the whole request target against the webroot.
+ */
+public class StaticFileHandler implements Handler {
+
+    private final WebRootHandler webRootHandler;
+    // Cache-Control of static files, none if null
+    private final String staticCacheControl;
+
+    public StaticFileHandler(WebRootHandler webRootHandler, String staticCacheControl) {
+        this.webRootHandler = webRootHandler;
+        this.staticCacheControl = staticCacheControl;
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest request, PathParams params) {
+        // HEAD announces the body GET would send, without sending it
+        boolean setMessageBody = request.getMethod() != HttpMethod.HEAD;
+        try {
+            StaticResource resource = webRootHandler.getResource(request.getRequestTarget());
+            HttpResponse.Builder builder = new HttpResponse.Builder()
+                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                    .statusCode(HttpStatusCode.OK)
+                    .addHeader(HttpHeaderName.CONTENT_TYPE.headerName, resource.getMimeType());
+
+            if (webRootHandler.isCompressionEnabled()) {
+                // Caches must not hand a compressed variant to a client that did not ask for it
+                builder.addHeader(HttpHeaderName.VARY.headerName, HttpHeaderName.ACCEPT_ENCODING.headerName);
+                ContentEncoding encoding = ContentEncoding.negotiate(request.getHeader(HttpHeaderName.ACCEPT_ENCODING.headerName));
+                StaticResource variant = webRootHandler.getEncodedResource(request.getRequestTarget(), resource, encoding);
+                if (variant != null) {
+                    builder.addHeader(HttpHeaderName.CONTENT_ENCODING.headerName, encoding.token);
+                    resource = variant;
+                }
+            }
+
+            builder.addHeader(HttpHeaderName.ETAG.headerName, resource.getEtag())
+                    .addHeader(HttpHeaderName.LAST_MODIFIED.headerName, resource.getLastModifiedDate())
+                    .addHeader(HttpHeaderName.ACCEPT_RANGES.headerName, "bytes");
+            if (staticCacheControl != null && !staticCacheControl.isEmpty()) {
+                builder.addHeader(HttpHeaderName.CACHE_CONTROL.headerName, staticCacheControl);
+            }
+
+            if (isNotModified(request, resource)) {
+                // The client's copy is current, the file is not even opened
+                return builder.statusCode(HttpStatusCode.REDIRECTION_304_NOT_MODIFIED).build();
+            }
+
+            List<ByteRange> ranges = setMessageBody && isRangeApplicable(request, resource)
+                    ? ByteRange.parse(request.getHeader(HttpHeaderName.RANGE.headerName), resource.getLength())
+                    : null;
+
+            if (!setMessageBody) {
+                // HEAD announces the length the GET body would have
+                builder.addHeader(HttpHeaderName.CONTENT_LENGTH.headerName, String.valueOf(resource.getLength()));
+            } else if (ranges != null) {
+                return handleRangeRequest(request, resource, ranges, builder);
+            } else if (resource.getContent() != null) {
+                // Small files are served from the cache
+                builder.addHeader(HttpHeaderName.CONTENT_LENGTH.headerName, String.valueOf(resource.getLength()))
+                        .messageBody(resource.getContent());
+            } else {
+                // Streamed from disk by the connection, the file is never loaded in memory
+                FileRegion fileBody = webRootHandler.openFileRegion(resource);
+                builder.addHeader(HttpHeaderName.CONTENT_LENGTH.headerName, String.valueOf(fileBody.remaining()))
+                        .fileBody(fileBody);
+            }
+
+            return builder.build();
+
+        } catch (FileNotFoundException e) {
+
+            return new HttpResponse.Builder()
+                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                    .statusCode(HttpStatusCode.CLIENT_ERROR_404_NOT_FOUND)
+                    .build();
+
+        } catch (ReadFileException e) {
+
+            return new HttpResponse.Builder()
+                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                    .statusCode(HttpStatusCode.SERVER_ERROR_500_INTERNAL_SERVER_ERROR)
+                    .build();
+        }
+
+    }
+
+    /**
+     * Answers a Range request with the requested parts of the file, each served from its own
+     * region of the file (or slice of the cached content) so the file is never loaded whole.
+     */
+    private HttpResponse handleRangeRequest(HttpRequest request, StaticResource resource, List<ByteRange> ranges,
+                                            HttpResponse.Builder builder) {
+        if (ranges.isEmpty()) {
+            return new HttpResponse.Builder()
+                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                    .statusCode(HttpStatusCode.CLIENT_ERROR_416_RANGE_NOT_SATISFIABLE)
+                    .addHeader(HttpHeaderName.CONTENT_RANGE.headerName, "bytes */" + resource.getLength())
+                    .build();
+        }
+
+        builder.statusCode(HttpStatusCode.SUCCESS_206_PARTIAL_CONTENT);
+        if (ranges.size() == 1) {
+            ByteRange range = ranges.get(0);
+            return builder.addHeader(HttpHeaderName.CONTENT_RANGE.headerName, range.toContentRange(resource.getLength()))
+                    .addHeader(HttpHeaderName.CONTENT_LENGTH.headerName, String.valueOf(range.getLength()))
+                    .fileBody(webRootHandler.openFileRegion(resource, range.getFirst(), range.getLength()))
+                    .build();
+        }
+
+        // multipart/byteranges, RFC 9110 14.6
+        String boundary = Long.toHexString(ThreadLocalRandom.current().nextLong()) + Long.toHexString(System.nanoTime());
+        builder.addHeader(HttpHeaderName.CONTENT_TYPE.headerName, "multipart/byteranges; boundary=" + boundary);
+        long length = 0;
+        String delimiter = "--" + boundary + "\r\n";
+        for (ByteRange range : ranges) {
+            byte[] partHead = (delimiter
+                    + HttpHeaderName.CONTENT_TYPE.headerName + ": " + resource.getMimeType() + "\r\n"
+                    + HttpHeaderName.CONTENT_RANGE.headerName + ": " + range.toContentRange(resource.getLength()) + "\r\n"
+                    + "\r\n").getBytes(StandardCharsets.US_ASCII);
+            builder.fileBody(new FileRegion(ByteBuffer.wrap(partHead)))
+                    .fileBody(webRootHandler.openFileRegion(resource, range.getFirst(), range.getLength()));
+            length += partHead.length + range.getLength();
+            delimiter = "\r\n--" + boundary + "\r\n";
+        }
+        byte[] closeDelimiter = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+        builder.fileBody(new FileRegion(ByteBuffer.wrap(closeDelimiter)));
+        length += closeDelimiter.length;
+
+        return builder.addHeader(HttpHeaderName.CONTENT_LENGTH.headerName, String.valueOf(length)).build();
+    }
+
+    /**
+     * @return true if the request has a Range that its If-Range, if any, allows (RFC 9110, 13.1.5).
+     */
+    private boolean isRangeApplicable(HttpRequest request, StaticResource resource) {
+        if (request.getHeader(HttpHeaderName.RANGE.headerName) == null) {
+            return false;
+        }
+        String ifRange = request.getHeader(HttpHeaderName.IF_RANGE.headerName);
+        if (ifRange == null) {
+            return true;
+        }
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // Strong comparison, a weak tag never matches
+            return ifRange.equals(resource.getEtag());
+        }
+        return HttpDate.parse(ifRange) == resource.getLastModified() / 1000 * 1000;
+    }
+
+    /**
+     * Evaluates If-None-Match, or If-Modified-Since when there is no If-None-Match (RFC 9110, 13.2.2).
+     */
+    private boolean isNotModified(HttpRequest request, StaticResource resource) {
+        String ifNoneMatch = request.getHeader(HttpHeaderName.IF_NONE_MATCH.headerName);
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                // If-None-Match uses the weak comparison
+                if (tag.equals("*") || stripWeakPrefix(tag).equals(stripWeakPrefix(resource.getEtag()))) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        long ifModifiedSince = HttpDate.parse(request.getHeader(HttpHeaderName.IF_MODIFIED_SINCE.headerName));
+        // HTTP-dates have a one second resolution
+        return ifModifiedSince >= 0 && resource.getLastModified() / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private static String stripWeakPrefix(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+}
@@ -0,0 +1,95 @@
+package com.riad.core;
+
+import com.riad.config.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+import java.nio.channels.ServerSocketChannel;
+
+/**
+ * How the server listens and how accepted connections are set up, shared by every server engine.
+ * <p>
+ * With several acceptors, each one gets its own listening socket bound to the same port with
+ * {@code SO_REUSEPORT} (Linux 3.9+, the BSDs), so the kernel spreads new connections over their accept queues
+ * and the acceptors never contend on one. Where the option is missing, the acceptors share one socket.
+ */
+public class TcpOptions {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TcpOptions.class);
+
+    private final int port;
+    private final int acceptors;
+    private final int backlog;
+    private final boolean tcpNoDelay;
+    // 0 keeps the OS default
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+
+    public TcpOptions(int port, int acceptors, int backlog, boolean tcpNoDelay, int sendBufferSize, int receiveBufferSize) {
+        this.port = port;
+        this.acceptors = Math.max(1, acceptors);
+        this.backlog = backlog;
+        this.tcpNoDelay = tcpNoDelay;
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
+    public static TcpOptions fromConfiguration(Configuration conf) {
+        return new TcpOptions(conf.getPort(), conf.getAcceptorThreads(), conf.getAcceptBacklog(), conf.isTcpNoDelay(),
+                conf.getSocketSendBufferSize(), conf.getSocketReceiveBufferSize());
+    }
+
+    public int getAcceptors() {
+        return acceptors;
+    }
+
+    /**
+     * Opens and binds the listening sockets, one per acceptor when {@code SO_REUSEPORT} is supported, a single one
+     * otherwise. They are blocking, for acceptor threads.
+     */
+    public ServerSocketChannel[] bind() throws IOException {
+        ServerSocketChannel first = ServerSocketChannel.open();
+        boolean reusePort = acceptors > 1 && first.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        if (acceptors > 1 && !reusePort) {
+            LOGGER.warn("SO_REUSEPORT is not supported here, the {} acceptors share one listening socket", acceptors);
+        }
+
+        ServerSocketChannel[] channels = new ServerSocketChannel[reusePort ? acceptors : 1];
+        try {
+            for (int i = 0; i < channels.length; i++) {
+                channels[i] = i == 0 ? first : ServerSocketChannel.open();
+                if (reusePort) {
+                    channels[i].setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                // Set on the listener so it applies from the handshake on, the window scale is negotiated there
+                if (receiveBufferSize > 0) {
+                    channels[i].setOption(StandardSocketOptions.SO_RCVBUF, receiveBufferSize);
+                }
+                channels[i].bind(new InetSocketAddress(port), backlog);
+            }
+        } catch (IOException e) {
+            for (ServerSocketChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+            first.close();
+            throw e;
+        }
+        return channels;
+    }
+
+    /**
+     * Applies the connection options to an accepted socket.
+     */
+    public void configure(NetworkChannel channel) throws IOException {
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, tcpNoDelay);
+        if (sendBufferSize > 0) {
+            channel.setOption(StandardSocketOptions.SO_SNDBUF, sendBufferSize);
+        }
+    }
+}
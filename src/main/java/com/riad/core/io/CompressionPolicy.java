@@ -0,0 +1,50 @@
+package com.riad.core.io;
+
+import com.riad.config.Configuration;
+
+import java.util.List;
+
+/**
+ * Which static files are worth compressing on the fly: text-like MIME types within a size range.
+ * Smaller files gain too little, larger ones would take too much memory once compressed and cached.
+ */
+public class CompressionPolicy {
+
+    private final boolean enabled;
+    private final long minSize;
+    private final long maxSize;
+    // Prefixes, "text/" covers every text type
+    private final List<String> mimeTypes;
+
+    public CompressionPolicy(boolean enabled, long minSize, long maxSize, List<String> mimeTypes) {
+        this.enabled = enabled;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.mimeTypes = mimeTypes;
+    }
+
+    public static CompressionPolicy fromConfiguration(Configuration conf) {
+        return new CompressionPolicy(conf.isCompressionEnabled(), conf.getCompressionMinSize(),
+                conf.getCompressionMaxSize(), conf.getCompressibleMimeTypes());
+    }
+
+    public static CompressionPolicy disabled() {
+        return new CompressionPolicy(false, 0, 0, List.of());
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public boolean isCompressible(StaticResource resource) {
+        if (!enabled || resource.getLength() < minSize || resource.getLength() > maxSize) {
+            return false;
+        }
+        for (String mimeType : mimeTypes) {
+            if (resource.getMimeType().startsWith(mimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
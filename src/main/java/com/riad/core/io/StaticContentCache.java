@@ -0,0 +1,200 @@
+package com.riad.core.io;
+
+import com.riad.config.Configuration;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolved webroot files, about the least recently used first out.
+ * <p>
+ * The cache is bounded by a number of entries and by the total size of the contents it keeps.
+ * Files up to {@link #getMaxFileSize()} have their content cached in the heap, files up to
+ * {@link #getMaxMappedFileSize()} are memory mapped, within a limited number of mappings, and larger
+ * ones only have their metadata cached. Entries are trusted for {@link #getRevalidateIntervalMillis()}
+ * before the file is compared with the disk again, see {@link WebRootHandler#getResource(String)}.
+ * <p>
+ * Java has no way to unmap a file explicitly: an evicted mapping is released by the garbage collector
+ * once the responses still writing it are done.
+ * <p>
+ * Every static request looks up the cache, from every worker and event loop: a hit takes no lock, it is a
+ * {@link ConcurrentHashMap} read and the setting of the entry's referenced bit. Eviction is the CLOCK
+ * approximation of LRU: a hand goes round the entries, clearing the bits it finds set and evicting the first
+ * entry whose bit is clear, one not used since the hand last passed. Only changes, on misses, are serialized.
+ */
+public class StaticContentCache {
+
+    private final long maxBytes;
+    private final int maxEntries;
+    private final int maxFileSize;
+    private final long maxMappedFileSize;
+    private final int maxMappings;
+    private final long revalidateIntervalMillis;
+
+    private final ConcurrentHashMap<String, Entry> resources = new ConcurrentHashMap<>();
+    // Held by the changes to the entries, the totals and the hand; never by get
+    private final Object writeLock = new Object();
+    private Iterator<Map.Entry<String, Entry>> hand;
+    private volatile long totalBytes = 0;
+    private volatile int mappings = 0;
+
+    private static final class Entry {
+        final StaticResource resource;
+        // Set when used, cleared when the hand passes
+        volatile boolean referenced = true;
+
+        Entry(StaticResource resource) {
+            this.resource = resource;
+        }
+    }
+
+    public StaticContentCache(long maxBytes, int maxEntries, int maxFileSize,
+                              long maxMappedFileSize, int maxMappings, long revalidateIntervalMillis) {
+        this.maxBytes = maxBytes;
+        this.maxEntries = maxEntries;
+        this.maxFileSize = maxFileSize;
+        this.maxMappedFileSize = maxMappedFileSize;
+        this.maxMappings = maxMappings;
+        this.revalidateIntervalMillis = revalidateIntervalMillis;
+    }
+
+    public static StaticContentCache fromConfiguration(Configuration conf) {
+        return new StaticContentCache(conf.getStaticCacheSize(), conf.getStaticCacheMaxEntries(),
+                conf.getStaticCacheMaxFileSize(), conf.getStaticCacheMaxMappedFileSize(),
+                conf.getStaticCacheMaxMappings(), conf.getStaticCacheRevalidateInterval());
+    }
+
+    /**
+     * A cache that keeps nothing, every lookup goes to the disk.
+     */
+    public static StaticContentCache disabled() {
+        return new StaticContentCache(0, 0, 0, 0, 0, 0);
+    }
+
+    public int getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    public long getMaxMappedFileSize() {
+        return maxMappedFileSize;
+    }
+
+    /**
+     * @return true if a file of that length is to be memory mapped.
+     */
+    public boolean shouldMap(long length) {
+        return maxMappings > 0 && length > maxFileSize && length <= maxMappedFileSize;
+    }
+
+    public long getRevalidateIntervalMillis() {
+        return revalidateIntervalMillis;
+    }
+
+    /**
+     * @return false if nothing is ever kept, see {@link #disabled()}.
+     */
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * @return true if a resource of that weight can be kept, {@link #put} silently drops the others.
+     */
+    public boolean canHold(long weight) {
+        return maxEntries > 0 && weight <= maxBytes;
+    }
+
+    public StaticResource get(String relativePath) {
+        Entry entry = resources.get(relativePath);
+        if (entry == null) {
+            return null;
+        }
+        // Read first: hot entries are not written to, their cache line stays shared between cores
+        if (!entry.referenced) {
+            entry.referenced = true;
+        }
+        return entry.resource;
+    }
+
+    public void put(String relativePath, StaticResource resource) {
+        if (!canHold(resource.getWeight())) {
+            return;
+        }
+        synchronized (writeLock) {
+            Entry previous = resources.put(relativePath, new Entry(resource));
+            if (previous != null) {
+                forget(previous.resource);
+            }
+            totalBytes += resource.getWeight();
+            if (resource.isMapped()) {
+                mappings++;
+            }
+
+            while (resources.size() > maxEntries || totalBytes > maxBytes) {
+                evictNext(false);
+            }
+            // Only mappings go then, the entries around them stay
+            while (mappings > maxMappings) {
+                evictNext(true);
+            }
+        }
+    }
+
+    public void remove(String relativePath) {
+        synchronized (writeLock) {
+            Entry removed = resources.remove(relativePath);
+            if (removed != null) {
+                forget(removed.resource);
+            }
+        }
+    }
+
+    /**
+     * Moves the hand to the next entry not used since it last passed, and evicts it.
+     *
+     * @param mappedOnly true to only consider the memory mapped entries.
+     */
+    private void evictNext(boolean mappedOnly) {
+        while (true) {
+            if (hand == null || !hand.hasNext()) {
+                hand = resources.entrySet().iterator();
+                if (!hand.hasNext()) {
+                    return;
+                }
+            }
+            Map.Entry<String, Entry> candidate = hand.next();
+            Entry entry = candidate.getValue();
+            if (mappedOnly && !entry.resource.isMapped()) {
+                continue;
+            }
+            if (entry.referenced) {
+                entry.referenced = false;
+                continue;
+            }
+            if (resources.remove(candidate.getKey(), entry)) {
+                forget(entry.resource);
+            }
+            return;
+        }
+    }
+
+    private void forget(StaticResource resource) {
+        totalBytes -= resource.getWeight();
+        if (resource.isMapped()) {
+            mappings--;
+        }
+    }
+
+    public int size() {
+        return resources.size();
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public int getMappings() {
+        return mappings;
+    }
+}
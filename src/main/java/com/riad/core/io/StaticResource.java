@@ -0,0 +1,109 @@
+package com.riad.core.io;
+
+import com.riad.http.HttpDate;
+
+import java.io.File;
+import java.nio.MappedByteBuffer;
+
+/**
+ * A file of the webroot once resolved: where it is, what it is and, depending on its size, what it contains
+ * (small files) or a mapping of it (medium files).
+ */
+public class StaticResource {
+
+    private final File file;
+    private final String mimeType;
+    private final long length;
+    private final long lastModified;
+    private final byte[] content;
+    private final MappedByteBuffer mapping;
+    // Validators, computed once per file version
+    private final String etag;
+    private final String lastModifiedDate;
+
+    // Last time the file was compared with the disk, see StaticContentCache
+    private volatile long checkedAt;
+
+    StaticResource(File file, String mimeType, long length, long lastModified, byte[] content, MappedByteBuffer mapping, long checkedAt) {
+        this.file = file;
+        this.mimeType = mimeType;
+        this.length = length;
+        this.lastModified = lastModified;
+        this.content = content;
+        this.mapping = mapping;
+        // Size and modification time identify a version of the file without hashing it; encoded
+        // variants have their own length, hence their own tag
+        this.etag = "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+        this.lastModifiedDate = HttpDate.format(lastModified);
+        this.checkedAt = checkedAt;
+    }
+
+    /**
+     * Marks, in the cache, a file that has no encoded variant worth serving.
+     */
+    static final StaticResource NOT_ENCODED = new StaticResource(null, null, 0, 0, null, null, 0);
+
+    public File getFile() {
+        return file;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the strong entity tag of this version of the file, quotes included.
+     */
+    public String getEtag() {
+        return etag;
+    }
+
+    /**
+     * @return the modification time of the file as an HTTP-date.
+     */
+    public String getLastModifiedDate() {
+        return lastModifiedDate;
+    }
+
+    /**
+     * @return the content of the file, or null if it is too large to be kept in memory.
+     */
+    public byte[] getContent() {
+        return content;
+    }
+
+    /**
+     * @return a read only mapping of the file, or null if the file is not mapped.
+     * Shared by every request, write a {@link MappedByteBuffer#duplicate() duplicate} of it.
+     */
+    public MappedByteBuffer getMapping() {
+        return mapping;
+    }
+
+    boolean isMapped() {
+        return mapping != null;
+    }
+
+    long getCheckedAt() {
+        return checkedAt;
+    }
+
+    void setCheckedAt(long checkedAt) {
+        this.checkedAt = checkedAt;
+    }
+
+    /**
+     * @return the heap the resource takes in the cache, its content only. Mappings live off heap.
+     */
+    long getWeight() {
+        return content == null ? 0 : content.length;
+    }
+}
@@ -1,20 +1,59 @@
 package com.riad.core.io;
 
+import com.riad.http.ContentEncoding;
+import com.riad.http.FileRegion;
+import com.riad.util.CoarseClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class WebRootHandler {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebRootHandler.class);
+
     private File webRoot;
+    private String webRootCanonicalPath;
+    private StaticContentCache cache;
+    private CompressionPolicy compressionPolicy;
+    // Variants being compressed, by cache key: one compression per variant however many requests ask for it
+    private final ConcurrentHashMap<String, CompletableFuture<StaticResource>> pendingVariants = new ConcurrentHashMap<>();
+    // A single thread, compressing never takes more than one core from the requests
+    private final ExecutorService compressor;
 
     public WebRootHandler(String webRootPath) throws WebRootNotFoundException {
+        this(webRootPath, StaticContentCache.disabled(), CompressionPolicy.disabled());
+    }
+
+    public WebRootHandler(String webRootPath, StaticContentCache cache, CompressionPolicy compressionPolicy) throws WebRootNotFoundException {
         webRoot = new File(webRootPath);
         if (!webRoot.exists() || !webRoot.isDirectory()){
             throw new WebRootNotFoundException("Webroot provided does not exist or is not a folder");
         }
+        try {
+            webRootCanonicalPath = webRoot.getCanonicalPath();
+        } catch (IOException e) {
+            throw new WebRootNotFoundException("Webroot provided can not be resolved");
+        }
+        this.cache = cache;
+        this.compressionPolicy = compressionPolicy;
+        this.compressor = compressionPolicy.isEnabled() ? Executors.newSingleThreadExecutor(task -> {
+            Thread thread = new Thread(task, "static-compressor");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
     }
 
     private boolean checkIfEndsWithSlash(String relativePath) {
@@ -34,7 +73,7 @@ public class WebRootHandler {
             return false;
 
         try {
-            if (file.getCanonicalPath().startsWith(webRoot.getCanonicalPath())) {
+            if (file.getCanonicalPath().startsWith(webRootCanonicalPath)) {
                 return true;
             }
         } catch (IOException e) {
@@ -43,54 +82,270 @@ public class WebRootHandler {
         return false;
     }
 
-    public String getFileMimeType(String relativePath) throws FileNotFoundException {
+    /**
+     * Resolves a file of the webroot, from the cache when possible.
+     * <p>
+     * A cached resource is served without touching the disk until the revalidate interval of the cache
+     * has elapsed; the file's modification time and size are compared then, and the resource reloaded
+     * if they changed.
+     *
+     * @param relativePath the path to the file inside the webroot folder.
+     * @throws FileNotFoundException if the file can not be found
+     * @throws ReadFileException if there was a problem reading the file.
+     */
+    public StaticResource getResource(String relativePath) throws FileNotFoundException, ReadFileException {
         if (checkIfEndsWithSlash(relativePath)) {
             relativePath += "index.html"; // By default serve the index.html, if it exists.
         }
 
+        long now = CoarseClock.currentTimeMillis();
+        StaticResource resource = cache.get(relativePath);
+        if (resource != null) {
+            if (now - resource.getCheckedAt() < cache.getRevalidateIntervalMillis()) {
+                return resource;
+            }
+            File file = resource.getFile();
+            // lastModified() is 0 once the file is gone
+            if (file.lastModified() == resource.getLastModified() && file.length() == resource.getLength()) {
+                resource.setCheckedAt(now);
+                return resource;
+            }
+            cache.remove(relativePath);
+        }
+
+        resource = loadResource(relativePath, now);
+        cache.put(relativePath, resource);
+        return resource;
+    }
+
+    /**
+     * @return true if responses for this webroot depend on Accept-Encoding.
+     */
+    public boolean isCompressionEnabled() {
+        return compressionPolicy.isEnabled();
+    }
+
+    /**
+     * Returns the encoded variant of a file: its precompressed sibling ({@code file.gz} for gzip) when there
+     * is one, otherwise the file compressed here if the {@link CompressionPolicy} allows it.
+     * <p>
+     * Compressing is left to a background thread, never done on the request thread (an event loop serving many
+     * connections with the NIO engine): until the variant is ready, the file is served as is.
+     * <p>
+     * Variants are cached under the path, the modification time of the file and the encoding, so a change
+     * of the file gives new variants while the old ones age out of the cache. The cache is what makes a variant
+     * cost once: a file whose variant it could not hold is not compressed, it would be again on every request,
+     * and without a cache no variant is looked for at all, not even a precompressed one.
+     *
+     * @param relativePath the path the resource was resolved from.
+     * @param resource the resolved file, see {@link #getResource(String)}.
+     * @return the variant, or null if the file is to be served as is, for now or for good.
+     * @throws ReadFileException if there was a problem reading the file.
+     */
+    public StaticResource getEncodedResource(String relativePath, StaticResource resource, ContentEncoding encoding) throws ReadFileException {
+        if (!compressionPolicy.isEnabled() || !cache.isEnabled() || encoding == ContentEncoding.IDENTITY) {
+            return null;
+        }
+        if (checkIfEndsWithSlash(relativePath)) {
+            relativePath += "index.html"; // By default serve the index.html, if it exists.
+        }
+
+        String key = relativePath + '@' + resource.getLastModified() + ';' + encoding.token;
+        StaticResource variant = cache.get(key);
+        if (variant == null) {
+            if (pendingVariants.containsKey(key)) {
+                return null;
+            }
+            variant = loadPrecompressedResource(relativePath, resource, encoding);
+            if (variant == null) {
+                // The variant is smaller than the file, or not kept
+                if (!compressionPolicy.isCompressible(resource) || !cache.canHold(resource.getLength())) {
+                    variant = StaticResource.NOT_ENCODED;
+                } else {
+                    compressInBackground(key, resource, encoding);
+                    return null;
+                }
+            }
+            cache.put(key, variant);
+        }
+        return variant == StaticResource.NOT_ENCODED ? null : variant;
+    }
+
+    /**
+     * @return the precompressed sibling of the file for this encoding, or null if there is none.
+     */
+    private StaticResource loadPrecompressedResource(String relativePath, StaticResource resource, ContentEncoding encoding) throws ReadFileException {
+        if (encoding != ContentEncoding.GZIP) {
+            return null;
+        }
+        try {
+            StaticResource precompressed = loadResource(relativePath + ".gz", CoarseClock.currentTimeMillis());
+            return new StaticResource(precompressed.getFile(), resource.getMimeType(), precompressed.getLength(),
+                    resource.getLastModified(), precompressed.getContent(), precompressed.getMapping(), 0);
+        } catch (FileNotFoundException e) {
+            // No sibling, compress it ourselves
+            return null;
+        }
+    }
+
+    /**
+     * Starts compressing a variant, unless it already is. It goes to the cache once done.
+     */
+    private void compressInBackground(String key, StaticResource resource, ContentEncoding encoding) {
+        CompletableFuture<StaticResource> pending = new CompletableFuture<>();
+        if (pendingVariants.putIfAbsent(key, pending) != null) {
+            return;
+        }
+        compressor.execute(() -> {
+            try {
+                // Another compression may have just finished, between the cache miss and putIfAbsent
+                StaticResource variant = cache.get(key);
+                if (variant == null) {
+                    variant = compress(resource, encoding);
+                    cache.put(key, variant);
+                }
+                pending.complete(variant);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not compress {}", resource.getFile(), e);
+                pending.completeExceptionally(e);
+            } finally {
+                pendingVariants.remove(key, pending);
+            }
+        });
+    }
+
+    private StaticResource compress(StaticResource resource, ContentEncoding encoding) throws ReadFileException {
+        try {
+            byte[] content = resource.getContent();
+            if (content == null) {
+                content = Files.readAllBytes(resource.getFile().toPath());
+            }
+            byte[] encoded = encoding.encode(content);
+            if (encoded.length >= content.length) {
+                return StaticResource.NOT_ENCODED;
+            }
+            return new StaticResource(resource.getFile(), resource.getMimeType(), encoded.length,
+                    resource.getLastModified(), encoded, null, 0);
+        } catch (IOException e) {
+            throw new ReadFileException(e);
+        }
+    }
+
+    private StaticResource loadResource(String relativePath, long now) throws FileNotFoundException, ReadFileException {
         if (!checkIfProvidedRelativePathExists(relativePath)) {
             throw new FileNotFoundException("File not found: " + relativePath);
         }
 
         File file = new File(webRoot, relativePath);
+        if (file.isDirectory()) {
+            throw new FileNotFoundException("Not a file: " + relativePath);
+        }
 
         String mimeType = URLConnection.getFileNameMap().getContentTypeFor(file.getName());
-
         if (mimeType == null) {
-            return "application/octet-stream";
+            mimeType = "application/octet-stream";
+        }
+
+        long lastModified = file.lastModified();
+        long length = file.length();
+        byte[] content = null;
+        MappedByteBuffer mapping = null;
+        try {
+            if (length <= cache.getMaxFileSize()) {
+                content = Files.readAllBytes(file.toPath());
+                length = content.length;
+            } else if (cache.shouldMap(length)) {
+                // The mapping stays valid once the channel is closed
+                try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                    mapping = fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+                }
+                length = mapping.capacity();
+            }
+        } catch (IOException e) {
+            throw new ReadFileException(e);
         }
+        return new StaticResource(file, mimeType, length, lastModified, content, mapping, now);
+    }
 
-        return mimeType;
+    public String getFileMimeType(String relativePath) throws FileNotFoundException {
+        return getResource(relativePath).getMimeType();
     }
 
     /**
-     * Returns a byte array of the content of a file.
+     * Returns the size in bytes of a file, without reading it.
      *
-     * Todo - For large files a new strategy might be necessary.
+     * @param relativePath the path to the file inside the webroot folder.
+     * @throws FileNotFoundException if the file can not be found
+     */
+    public long getFileLength(String relativePath) throws FileNotFoundException {
+        return getResource(relativePath).getLength();
+    }
+
+    /**
+     * Opens a file to be sent as a response body, see {@link FileRegion}.
      *
      * @param relativePath the path to the file inside the webroot folder.
-     * @return a byte array of the data.
      * @throws FileNotFoundException if the file can not be found
-     * @throws ReadFileException if there was a problem reading the file.
+     * @throws ReadFileException if the file could not be opened.
      */
-    public byte[] getFileByteArrayData(String relativePath) throws FileNotFoundException, ReadFileException {
-        if (checkIfEndsWithSlash(relativePath)) {
-            relativePath += "index.html"; // By default serve the index.html, if it exists.
+    public FileRegion openFileRegion(String relativePath) throws FileNotFoundException, ReadFileException {
+        return openFileRegion(getResource(relativePath));
+    }
+
+    /**
+     * Opens a resolved file to be sent as a response body, see {@link FileRegion}.
+     *
+     * @throws ReadFileException if the file could not be opened.
+     */
+    public FileRegion openFileRegion(StaticResource resource) throws ReadFileException {
+        if (resource.getMapping() != null) {
+            return new FileRegion(resource.getMapping().duplicate());
         }
+        try {
+            return FileRegion.of(resource.getFile().toPath());
+        } catch (IOException e) {
+            throw new ReadFileException(e);
+        }
+    }
 
-        if (!checkIfProvidedRelativePathExists(relativePath)) {
-            throw new FileNotFoundException("File not found: " + relativePath);
+    /**
+     * Opens a part of a resolved file to be sent as a response body, e.g. for a range request.
+     * Nothing is copied: cached contents and mappings are sliced, other files are read from the given position.
+     *
+     * @throws ReadFileException if the file could not be opened.
+     */
+    public FileRegion openFileRegion(StaticResource resource, long position, long count) throws ReadFileException {
+        if (resource.getContent() != null) {
+            return new FileRegion(ByteBuffer.wrap(resource.getContent(), (int) position, (int) count).slice());
+        }
+        if (resource.getMapping() != null) {
+            return new FileRegion(resource.getMapping().duplicate().position((int) position).limit((int) (position + count)).slice());
+        }
+        try {
+            return new FileRegion(FileChannel.open(resource.getFile().toPath(), StandardOpenOption.READ), position, count);
+        } catch (IOException e) {
+            throw new ReadFileException(e);
         }
+    }
 
-        File file = new File(webRoot, relativePath);
-        FileInputStream fileInputStream = new FileInputStream(file);
-        byte[] fileBytes = new byte[(int)file.length()];
+    /**
+     * Returns a byte array of the content of a file.
+     * Loads the whole file in memory, {@link #openFileRegion(String)} streams it instead.
+     *
+     * @param relativePath the path to the file inside the webroot folder.
+     * @return a byte array of the data.
+     * @throws FileNotFoundException if the file can not be found
+     * @throws ReadFileException if there was a problem reading the file.
+     */
+    public byte[] getFileByteArrayData(String relativePath) throws FileNotFoundException, ReadFileException {
+        StaticResource resource = getResource(relativePath);
+        if (resource.getContent() != null) {
+            return resource.getContent();
+        }
         try {
-            fileInputStream.read(fileBytes);
-            fileInputStream.close();
+            return Files.readAllBytes(resource.getFile().toPath());
         } catch (IOException e) {
             throw new ReadFileException(e);
         }
-        return fileBytes;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,140 @@
+package com.riad.core.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of non-negative values (latencies in nanoseconds) with log-linear buckets, in the
+ * manner of HdrHistogram: each power of two is split into {@value #SUB_BUCKETS} buckets, so a percentile is
+ * known within 1/{@value #SUB_BUCKETS} of its value over the whole range of longs, in under a thousand counters.
+ * <p>
+ * The bucket counters are striped: a thread increments the copy of its stripe, picked from its id, so threads
+ * recording the same latency do not fight over one cache line. Recording is one atomic increment and two
+ * striped adds; percentiles are read from a sum of the stripes, consistent enough for monitoring.
+ * <p>
+ * Counts are kept since creation, see {@link WindowedHistogram} for the recent values only.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    // Values below SUB_BUCKETS have a bucket of their own, then SUB_BUCKETS per power of two
+    static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+    private static final int STRIPES = stripes();
+
+    // Stripe after stripe, BUCKETS counters each
+    private final AtomicLongArray counts = new AtomicLongArray(STRIPES * BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(stripe() * BUCKETS + bucketOf(value));
+        count.increment();
+        sum.add(value);
+        max.accumulate(value);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the highest value of the bucket holding the percentile, 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        addCountsTo(snapshot);
+        return valueAtPercentile(snapshot, percentile, getMax());
+    }
+
+    /**
+     * Adds the count of each bucket, all stripes together, to the given array.
+     */
+    void addCountsTo(long[] snapshot) {
+        for (int stripe = 0; stripe < STRIPES; stripe++) {
+            int offset = stripe * BUCKETS;
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] += counts.get(offset + i);
+            }
+        }
+    }
+
+    /**
+     * Clears the histogram. Values recorded meanwhile may be lost, it must not be in use.
+     */
+    void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.reset();
+    }
+
+    static long valueAtPercentile(long[] snapshot, double percentile, long max) {
+        long total = 0;
+        for (long bucketCount : snapshot) {
+            total += bucketCount;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * One per core rounded up to a power of two, at most 8: past that the memory grows faster than the contention falls.
+     */
+    private static int stripes() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        return cores <= 1 ? 1 : Math.min(8, Integer.highestOneBit(cores - 1) << 1);
+    }
+
+    @SuppressWarnings("deprecation") // Thread.threadId() is Java 19+
+    private static int stripe() {
+        long id = Thread.currentThread().getId();
+        // Fibonacci hashing, consecutive ids land on different stripes
+        return (int) ((id * 0x9E3779B97F4A7C15L) >>> 32) & (STRIPES - 1);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    static long highestValueOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int shift = magnitude - SUB_BUCKET_BITS;
+        long lowest = (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+        return lowest + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,164 @@
+package com.riad.core.metrics;
+
+import com.riad.core.router.Handler;
+import com.riad.core.router.PathParams;
+import com.riad.http.HttpHeaderName;
+import com.riad.http.HttpRequest;
+import com.riad.http.HttpResponse;
+import com.riad.http.HttpStatusCode;
+import com.riad.util.Json;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Exposes the {@link ServerMetrics} in the Prometheus text format, or as JSON when asked with
+ * {@code ?format=json} or {@code Accept: application/json}. Latencies are summaries in seconds, their quantiles
+ * and maximum over the last {@code metricsLatencyWindow} seconds.
+ * <p>
+ * Unless remote access is allowed, only clients on the loopback interface get them (a scraper or a proxy on
+ * the same host), the others get a 404 as if the path did not exist.
+ */
+public class MetricsHandler implements Handler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsHandler.class);
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p999"};
+
+    private final ServerMetrics metrics;
+    private final boolean allowRemote;
+
+    public MetricsHandler(ServerMetrics metrics, boolean allowRemote) {
+        this.metrics = metrics;
+        this.allowRemote = allowRemote;
+    }
+
+    @Override
+    public HttpResponse handle(HttpRequest request, PathParams params) {
+        if (!allowRemote && (request.getRemoteAddress() == null || !request.getRemoteAddress().isLoopbackAddress())) {
+            return new HttpResponse.Builder()
+                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                    .statusCode(HttpStatusCode.CLIENT_ERROR_404_NOT_FOUND)
+                    .build();
+        }
+        HttpResponse.Builder builder = new HttpResponse.Builder()
+                .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                .statusCode(HttpStatusCode.OK)
+                .addHeader(HttpHeaderName.CACHE_CONTROL.headerName, "no-store");
+        try {
+            if (wantsJson(request)) {
+                return builder.addHeader(HttpHeaderName.CONTENT_TYPE.headerName, "application/json")
+                        .messageBody(Json.toJsonBytes(toMap()))
+                        .build();
+            }
+            return builder.addHeader(HttpHeaderName.CONTENT_TYPE.headerName, "text/plain; version=0.0.4; charset=utf-8")
+                    .messageBody(toPrometheus().getBytes(StandardCharsets.UTF_8))
+                    .build();
+        } catch (Exception e) {
+            LOGGER.error("Error exporting the metrics", e);
+            return new HttpResponse.Builder()
+                    .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                    .statusCode(HttpStatusCode.SERVER_ERROR_500_INTERNAL_SERVER_ERROR)
+                    .build();
+        }
+    }
+
+    private static boolean wantsJson(HttpRequest request) {
+        String accept = request.getHeader(HttpHeaderName.ACCEPT.headerName);
+        return request.getRequestTarget().contains("format=json")
+                || accept != null && accept.contains("application/json");
+    }
+
+    String toPrometheus() {
+        StringBuilder out = new StringBuilder(4096);
+
+        out.append("# HELP http_requests_total Requests answered, by route and status.\n")
+                .append("# TYPE http_requests_total counter\n");
+        for (Map.Entry<String, Map<Integer, Long>> route : metrics.getRequestCounts().entrySet()) {
+            for (Map.Entry<Integer, Long> status : route.getValue().entrySet()) {
+                out.append("http_requests_total{route=\"");
+                appendLabelValue(out, route.getKey());
+                out.append("\",status=\"").append(status.getKey()).append("\"} ").append(status.getValue()).append('\n');
+            }
+        }
+
+        appendMetric(out, "http_received_bytes_total", "counter", "Bytes read from connections.", metrics.getBytesReceived());
+        appendMetric(out, "http_sent_bytes_total", "counter", "Bytes of responses sent, heads and bodies.", metrics.getBytesSent());
+        appendMetric(out, "http_connections_active", "gauge", "Open connections.", metrics.getActiveConnections());
+        appendMetric(out, "http_connections_idle", "gauge", "Open connections waiting for a request.", metrics.getIdleConnections());
+        appendMetric(out, "http_worker_queue_depth", "gauge", "Connections waiting for a worker thread.", metrics.getWorkerQueueDepth());
+        appendMetric(out, "http_requests_in_flight", "gauge", "Requests admitted and not answered yet.", metrics.getRequestsInFlight());
+        appendMetric(out, "http_admission_limit", "gauge", "Requests admitted at most before shedding with 503, 0 without limit.", metrics.getAdmissionLimit());
+        appendMetric(out, "http_rate_limit_clients", "gauge", "Clients with a rate limit bucket.", metrics.getRateLimitedClients());
+
+        appendSummary(out, "http_parse_latency_seconds", "From the first byte of a request to its handling.", metrics.getParseLatency());
+        appendSummary(out, "http_handle_latency_seconds", "Time spent in the route handlers.", metrics.getHandleLatency());
+        appendSummary(out, "http_write_latency_seconds", "Time spent writing responses to the connections.", metrics.getWriteLatency());
+        return out.toString();
+    }
+
+    Map<String, Object> toMap() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("requests", metrics.getRequestCounts());
+        map.put("bytesReceived", metrics.getBytesReceived());
+        map.put("bytesSent", metrics.getBytesSent());
+        map.put("activeConnections", metrics.getActiveConnections());
+        map.put("idleConnections", metrics.getIdleConnections());
+        map.put("workerQueueDepth", metrics.getWorkerQueueDepth());
+        map.put("requestsInFlight", metrics.getRequestsInFlight());
+        map.put("admissionLimit", metrics.getAdmissionLimit());
+        map.put("rateLimitClients", metrics.getRateLimitedClients());
+        map.put("parseLatency", toMap(metrics.getParseLatency()));
+        map.put("handleLatency", toMap(metrics.getHandleLatency()));
+        map.put("writeLatency", toMap(metrics.getWriteLatency()));
+        return map;
+    }
+
+    private static Map<String, Object> toMap(WindowedHistogram histogram) {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("count", histogram.getCount());
+        map.put("meanMicros", histogram.getCount() == 0 ? 0 : histogram.getSum() / histogram.getCount() / 1000);
+        for (int i = 0; i < QUANTILES.length; i++) {
+            map.put(QUANTILE_NAMES[i] + "Micros", histogram.getValueAtPercentile(QUANTILES[i] * 100) / 1000);
+        }
+        map.put("maxMicros", histogram.getMax() / 1000);
+        return map;
+    }
+
+    private static void appendMetric(StringBuilder out, String name, String type, String help, long value) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(' ').append(type).append('\n')
+                .append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void appendSummary(StringBuilder out, String name, String help, WindowedHistogram histogram) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n')
+                .append("# TYPE ").append(name).append(" summary\n");
+        for (double quantile : QUANTILES) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                    .append(seconds(histogram.getValueAtPercentile(quantile * 100))).append('\n');
+        }
+        out.append(name).append("_sum ").append(seconds(histogram.getSum())).append('\n')
+                .append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static void appendLabelValue(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                out.append('\\').append(c);
+            } else if (c == '\n') {
+                out.append("\\n");
+            } else {
+                out.append(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.riad.core.metrics;
+
+import com.riad.config.Configuration;
+import com.riad.http.HttpRequest;
+import com.riad.http.HttpResponse;
+import com.riad.http.HttpStatusCode;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Server-wide instrumentation, shared by every engine and connection: requests per route and status, bytes,
+ * connection gauges and parse / handle / write latency histograms over a sliding window.
+ * <p>
+ * Everything is recorded with striped or atomic counters, connections never wait on each other here.
+ * {@link MetricsHandler} exposes it.
+ */
+public class ServerMetrics {
+
+    private static final HttpStatusCode[] STATUS_CODES = HttpStatusCode.values();
+    // Requests that matched no route, or could not be parsed
+    static final String NO_ROUTE = "-";
+
+    public static final ServerMetrics DISABLED = new ServerMetrics(false, 0);
+
+    private final boolean enabled;
+
+    // Route name -> counters indexed by status ordinal
+    private final ConcurrentHashMap<String, LongAdder[]> requests = new ConcurrentHashMap<>();
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder activeConnections = new LongAdder();
+    private final LongAdder idleConnections = new LongAdder();
+    private volatile IntSupplier workerQueueDepth = () -> 0;
+    private volatile IntSupplier requestsInFlight = () -> 0;
+    private volatile IntSupplier admissionLimit = () -> 0;
+    private volatile IntSupplier rateLimitedClients = () -> 0;
+
+    // Null when disabled
+    private final WindowedHistogram parseLatency;
+    private final WindowedHistogram handleLatency;
+    private final WindowedHistogram writeLatency;
+
+    /**
+     * @param latencyWindowSeconds the time the latencies are kept for their percentiles.
+     */
+    public ServerMetrics(int latencyWindowSeconds) {
+        this(true, latencyWindowSeconds);
+    }
+
+    private ServerMetrics(boolean enabled, int latencyWindowSeconds) {
+        this.enabled = enabled;
+        this.parseLatency = enabled ? new WindowedHistogram(latencyWindowSeconds) : null;
+        this.handleLatency = enabled ? new WindowedHistogram(latencyWindowSeconds) : null;
+        this.writeLatency = enabled ? new WindowedHistogram(latencyWindowSeconds) : null;
+    }
+
+    public static ServerMetrics fromConfiguration(Configuration conf) {
+        return conf.isMetricsEnabled() ? new ServerMetrics(conf.getMetricsLatencyWindow()) : DISABLED;
+    }
+
+    /**
+     * Callers skip reading the clock when this is false.
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param request null if the request could not be parsed.
+     */
+    public void recordRequest(HttpRequest request, HttpResponse response) {
+        if (!enabled) {
+            return;
+        }
+        String route = request == null || request.getRoute() == null ? NO_ROUTE : request.getRoute();
+        LongAdder[] byStatus = requests.get(route);
+        if (byStatus == null) {
+            byStatus = requests.computeIfAbsent(route, r -> newCounters());
+        }
+        byStatus[response.getStatusCode().ordinal()].increment();
+    }
+
+    public void recordParse(long nanos) {
+        if (enabled) {
+            parseLatency.record(nanos);
+        }
+    }
+
+    public void recordHandle(long nanos) {
+        if (enabled) {
+            handleLatency.record(nanos);
+        }
+    }
+
+    public void recordWrite(long nanos) {
+        if (enabled) {
+            writeLatency.record(nanos);
+        }
+    }
+
+    public void addBytesReceived(long bytes) {
+        if (enabled) {
+            bytesReceived.add(bytes);
+        }
+    }
+
+    public void addBytesSent(long bytes) {
+        if (enabled) {
+            bytesSent.add(bytes);
+        }
+    }
+
+    public void connectionOpened() {
+        if (enabled) {
+            activeConnections.increment();
+        }
+    }
+
+    public void connectionClosed() {
+        if (enabled) {
+            activeConnections.decrement();
+        }
+    }
+
+    /**
+     * A connection waits for its next request.
+     */
+    public void connectionIdle() {
+        if (enabled) {
+            idleConnections.increment();
+        }
+    }
+
+    /**
+     * An idle connection received a request, or closed.
+     */
+    public void connectionBusy() {
+        if (enabled) {
+            idleConnections.decrement();
+        }
+    }
+
+    /**
+     * @param depth the number of connections waiting for a worker, read when the metrics are exported.
+     */
+    public void setWorkerQueueDepth(IntSupplier depth) {
+        this.workerQueueDepth = depth;
+    }
+
+    /**
+     * @param inFlight the number of requests admitted and not answered yet.
+     * @param limit    the number of requests admitted at most, 0 without admission control.
+     */
+    public void setAdmission(IntSupplier inFlight, IntSupplier limit) {
+        this.requestsInFlight = inFlight;
+        this.admissionLimit = limit;
+    }
+
+    /**
+     * @param clients the number of clients the rate limiter keeps a bucket for.
+     */
+    public void setRateLimitedClients(IntSupplier clients) {
+        this.rateLimitedClients = clients;
+    }
+
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    public long getActiveConnections() {
+        return activeConnections.sum();
+    }
+
+    public long getIdleConnections() {
+        return idleConnections.sum();
+    }
+
+    public int getWorkerQueueDepth() {
+        return workerQueueDepth.getAsInt();
+    }
+
+    public int getRequestsInFlight() {
+        return requestsInFlight.getAsInt();
+    }
+
+    public int getAdmissionLimit() {
+        return admissionLimit.getAsInt();
+    }
+
+    public int getRateLimitedClients() {
+        return rateLimitedClients.getAsInt();
+    }
+
+    public WindowedHistogram getParseLatency() {
+        return parseLatency;
+    }
+
+    public WindowedHistogram getHandleLatency() {
+        return handleLatency;
+    }
+
+    public WindowedHistogram getWriteLatency() {
+        return writeLatency;
+    }
+
+    /**
+     * @return route -> status code -> count, sorted, without the statuses never answered.
+     */
+    public Map<String, Map<Integer, Long>> getRequestCounts() {
+        Map<String, Map<Integer, Long>> counts = new TreeMap<>();
+        for (Map.Entry<String, LongAdder[]> route : requests.entrySet()) {
+            Map<Integer, Long> byStatus = new TreeMap<>();
+            for (HttpStatusCode status : STATUS_CODES) {
+                long count = route.getValue()[status.ordinal()].sum();
+                if (count > 0) {
+                    byStatus.merge(status.STATUS_CODE, count, Long::sum);
+                }
+            }
+            counts.put(route.getKey(), byStatus);
+        }
+        return counts;
+    }
+
+    private static LongAdder[] newCounters() {
+        LongAdder[] counters = new LongAdder[STATUS_CODES.length];
+        for (int i = 0; i < counters.length; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+}
@@ -0,0 +1,105 @@
+package com.riad.core.metrics;
+
+import com.riad.util.CoarseClock;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link Histogram} of the recent values only, so that a regression shows in the percentiles as soon as it
+ * happens instead of being diluted in everything recorded since the start.
+ * <p>
+ * Values go to the current of {@value #SLOTS} histograms, each covering a slice of the window; the clock thread
+ * moves on to the next slot every slice, clearing the oldest one first. Percentiles and the maximum are read
+ * over all the slots, which spans between {@code (SLOTS - 1) / SLOTS} of the window and the whole window.
+ * The count and the sum are cumulative, as Prometheus expects of a summary.
+ */
+public class WindowedHistogram {
+
+    private static final int SLOTS = 6;
+
+    private final Histogram[] slots = new Histogram[SLOTS];
+    private final long sliceMillis;
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    private volatile Histogram current;
+    // Only touched by the clock thread
+    private int currentIndex = 0;
+    private long nextRotationMillis;
+
+    /**
+     * @param windowSeconds the time the values are kept, at least {@value #SLOTS} seconds.
+     */
+    public WindowedHistogram(int windowSeconds) {
+        for (int i = 0; i < SLOTS; i++) {
+            slots[i] = new Histogram();
+        }
+        this.current = slots[0];
+        this.sliceMillis = Math.max(1, windowSeconds / SLOTS) * 1000L;
+        this.nextRotationMillis = nextSliceStart(CoarseClock.currentTimeMillis());
+        CoarseClock.onEverySecond(this::rotate);
+    }
+
+    public void record(long value) {
+        current.record(value);
+        count.increment();
+        sum.add(Math.max(0, value));
+    }
+
+    /**
+     * @return the values recorded since the start.
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * @return the sum of the values recorded since the start.
+     */
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * @return the largest value of the window.
+     */
+    public long getMax() {
+        long max = 0;
+        for (Histogram slot : slots) {
+            max = Math.max(max, slot.getMax());
+        }
+        return max;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return the highest value of the bucket holding the percentile over the window, 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long[] snapshot = new long[Histogram.BUCKETS];
+        for (Histogram slot : slots) {
+            slot.addCountsTo(snapshot);
+        }
+        return Histogram.valueAtPercentile(snapshot, percentile, getMax());
+    }
+
+    private void rotate(long now) {
+        if (now < nextRotationMillis) {
+            return;
+        }
+        nextRotationMillis = nextSliceStart(now);
+        // The next slot was current a whole window ago, nothing records into it anymore
+        int next = (currentIndex + 1) % SLOTS;
+        slots[next].reset();
+        currentIndex = next;
+        current = slots[next];
+    }
+
+    /**
+     * Slices start on whole seconds, when the clock runs its listeners: counting from now would drift past one
+     * of them every now and then, and skip a rotation.
+     */
+    private long nextSliceStart(long now) {
+        return (now / sliceMillis + 1) * sliceMillis;
+    }
+}
@@ -0,0 +1,419 @@
+package com.riad.core.nio;
+
+import com.riad.core.AccessLog;
+import com.riad.core.AdmissionController;
+import com.riad.core.HttpRequestHandler;
+import com.riad.core.KeepAlivePolicy;
+import com.riad.core.RateLimiter;
+import com.riad.core.metrics.ServerMetrics;
+import com.riad.http.BodySpool;
+import com.riad.http.CannedResponse;
+import com.riad.http.FileRegion;
+import com.riad.http.HttpParser;
+import com.riad.http.HttpParsingException;
+import com.riad.http.HttpRequest;
+import com.riad.http.HttpResponse;
+import com.riad.http.RequestBody;
+import com.riad.util.BufferPool;
+import com.riad.util.CoarseClock;
+import com.riad.util.PooledBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * State of one non-blocking connection: the request being parsed and the responses waiting to be written.
+ * <p>
+ * Every read is fed to the connection's {@link HttpParser}, which keeps its state between reads, and each
+ * complete request is handed to the {@link HttpRequestHandler}. The connection stays registered for reading afterwards as long as the {@link KeepAlivePolicy} allows it.
+ * <p>
+ * Pipelined requests already sitting in the read buffer are handled before writing, by batches, and the
+ * responses of a batch go out in order in one gathering write. File bodies are sent with transferTo between them.
+ */
+class NioConnection {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioConnection.class);
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    // Pipelined requests answered with a single gathering write
+    private static final int MAX_PIPELINED_BATCH = 16;
+    // Buffers passed to one gathering write, more are written by the next one
+    private static final int MAX_GATHERED_BUFFERS = 64;
+
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final HttpRequestHandler requestHandler;
+    private final KeepAlivePolicy keepAlivePolicy;
+    private final HttpParser httpParser;
+    private final int bodyMemoryThreshold;
+    // Direct buffers for the reads and the response heads
+    private final BufferPool bufferPool;
+    private final AccessLog accessLog;
+    private final ServerMetrics metrics;
+    private final AdmissionController admission;
+    private final RateLimiter rateLimiter;
+    private final InetAddress remoteAddress;
+
+    // Kept in "write mode" between reads, the parser copies what it needs to keep
+    private final PooledBuffer pooledReadBuffer;
+    private final ByteBuffer readBuffer;
+    // Body of the request being parsed, the parser enforces its maximum size
+    private BodySpool body;
+    // Responses waiting to be written, in request order: ByteBuffers, PooledBuffers (heads) and FileRegions (file bodies)
+    private final ArrayDeque<Object> pendingWrites = new ArrayDeque<>();
+    private final ByteBuffer[] gatheredBuffers = new ByteBuffer[MAX_GATHERED_BUFFERS];
+
+    private int handledRequests = 0;
+    private boolean keepAlive = true;
+    private long lastActivity = CoarseClock.currentTimeMillis();
+    private boolean closed = false;
+    // Waiting for a request, for the idle connections gauge
+    private boolean idle = true;
+    // Responses of the batch being written and when it was queued, for the write latency
+    private int unwrittenResponses = 0;
+    private long writeStartNanos;
+    // Admitted requests of the batch being written, in flight until it is, when the first one was admitted and
+    // when the batch was handled
+    private int admittedResponses = 0;
+    private long admittedStartNanos;
+    private long admittedHandledNanos;
+
+    NioConnection(SocketChannel channel, SelectionKey key, HttpRequestHandler requestHandler, KeepAlivePolicy keepAlivePolicy,
+                  HttpParser httpParser, int bodyMemoryThreshold, BufferPool bufferPool, AccessLog accessLog,
+                  ServerMetrics metrics, AdmissionController admission, RateLimiter rateLimiter) {
+        this.channel = channel;
+        this.key = key;
+        this.requestHandler = requestHandler;
+        this.keepAlivePolicy = keepAlivePolicy;
+        this.httpParser = httpParser;
+        this.bodyMemoryThreshold = bodyMemoryThreshold;
+        this.bufferPool = bufferPool;
+        this.accessLog = accessLog;
+        this.metrics = metrics;
+        this.admission = admission;
+        this.rateLimiter = rateLimiter;
+        this.remoteAddress = channel.socket().getInetAddress();
+        this.pooledReadBuffer = bufferPool.acquire(READ_BUFFER_SIZE);
+        this.readBuffer = pooledReadBuffer.buffer();
+        metrics.connectionOpened();
+        metrics.connectionIdle();
+    }
+
+    void onReadable() throws IOException {
+        int read = channel.read(readBuffer);
+        if (read == -1) {
+            close();
+            return;
+        }
+        lastActivity = CoarseClock.currentTimeMillis();
+        metrics.addBytesReceived(read);
+        if (idle && read > 0) {
+            idle = false;
+            metrics.connectionBusy();
+        }
+
+        serveBufferedRequests();
+    }
+
+    void onWritable() throws IOException {
+        flush();
+        if (pendingWrites.isEmpty()) {
+            // A request may already be waiting in the buffer
+            serveBufferedRequests();
+        }
+    }
+
+    /**
+     * @return true if the connection waited too long for the client: to send a request, or to read any of the
+     * pending responses. A client that stops reading is timed out like one that stops sending, the write
+     * timeout counts from the last write that made progress.
+     */
+    boolean isTimedOut(long now) {
+        long timeout = pendingWrites.isEmpty() ? keepAlivePolicy.getIdleTimeoutMillis() : keepAlivePolicy.getWriteTimeoutMillis();
+        return now - lastActivity > timeout;
+    }
+
+    void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        releaseAdmitted();
+        if (idle) {
+            metrics.connectionBusy();
+        }
+        metrics.connectionClosed();
+        if (body != null) {
+            body.discard();
+            body = null;
+        }
+        for (Object pendingWrite : pendingWrites) {
+            if (pendingWrite instanceof FileRegion fileBody) {
+                try {
+                    fileBody.close();
+                } catch (IOException e) {}
+            } else if (pendingWrite instanceof PooledBuffer head) {
+                head.release();
+            }
+        }
+        pendingWrites.clear();
+        httpParser.release();
+        pooledReadBuffer.release();
+        key.cancel();
+        try {
+            channel.close();
+        } catch (IOException e) {}
+    }
+
+    private void serveBufferedRequests() throws IOException {
+        // A batch written at once leaves the rest of the pipelined requests unanswered, and no read event will
+        // come for them. Bounded by what was read, a new read is needed past that.
+        boolean more = true;
+        while (more && pendingWrites.isEmpty() && !closed) {
+            more = serveBatch();
+        }
+    }
+
+    /**
+     * Answers up to {@link #MAX_PIPELINED_BATCH} of the requests in the read buffer, nothing while the previous
+     * batch is being written.
+     *
+     * @return true if the batch was full and bytes of more requests are already read.
+     */
+    private boolean serveBatch() throws IOException {
+        readBuffer.flip();
+        int batched = 0;
+        while (keepAlive && batched < MAX_PIPELINED_BATCH) {
+            HttpRequest request = null;
+            HttpResponse response;
+            boolean keepConnection;
+            try {
+                HttpParser.ParseResult result = httpParser.feed(readBuffer);
+                if (result == HttpParser.ParseResult.NEED_MORE) {
+                    break;
+                }
+                if (result == HttpParser.ParseResult.HEADERS_COMPLETE) {
+                    if (httpParser.getBodyLength() != 0) {
+                        body = new BodySpool(bodyMemoryThreshold);
+                    }
+                    continue;
+                }
+                if (result == HttpParser.ParseResult.BODY_CHUNK) {
+                    body.append(httpParser.getBodyChunk());
+                    continue;
+                }
+
+                request = httpParser.getRequest();
+                handledRequests++;
+                request.setRemoteAddress(remoteAddress);
+                if (!rateLimiter.tryAcquire(remoteAddress, rateLimiter.isPerRoute() ? requestHandler.routeOf(request) : null)) {
+                    reject(request, rateLimiter.getTooManyRequestsResponse());
+                    batched++;
+                    break;
+                }
+                if (!admission.tryAcquire()) {
+                    reject(request, admission.getOverloadedResponse());
+                    batched++;
+                    break;
+                }
+                boolean timed = accessLog.isEnabled() || metrics.isEnabled() || admission.isEnabled();
+                long start = timed ? System.nanoTime() : 0;
+                if (admittedResponses++ == 0) {
+                    admittedStartNanos = start;
+                }
+                if (body != null) {
+                    // Closing the body deletes its temporary file, if any
+                    try (RequestBody requestBody = body.toRequestBody()) {
+                        body = null;
+                        request.setBody(requestBody);
+                        response = requestHandler.handleRequest(request);
+                    }
+                } else {
+                    response = requestHandler.handleRequest(request);
+                }
+                keepConnection = keepAlivePolicy.shouldKeepAlive(request, handledRequests);
+                long handled = timed ? System.nanoTime() : 0;
+                if (metrics.isEnabled()) {
+                    metrics.recordParse(start - httpParser.getRequestStartNanos());
+                    metrics.recordHandle(handled - start);
+                    metrics.recordRequest(request, response);
+                }
+                if (accessLog.isEnabled()) {
+                    // Until the response is queued, the writes are not attributed to one request
+                    accessLog.log(remoteAddress, request.getMethod(), request.getRequestTarget(),
+                            response.getStatusCode().STATUS_CODE, response.getBodyLength(), handled - start);
+                }
+            } catch (HttpParsingException e) {
+                LOGGER.debug("Bad request", e);
+                response = requestHandler.handleParsingError(e);
+                keepConnection = false;
+                metrics.recordRequest(null, response);
+                accessLog.log(remoteAddress, null, null, response.getStatusCode().STATUS_CODE, 0, 0);
+            } catch (RuntimeException e) {
+                // A failing handler costs its own connection only, not the event loop and every connection on it
+                LOGGER.error("Error handling request", e);
+                response = requestHandler.handleInternalError(e);
+                keepConnection = false;
+                metrics.recordRequest(request, response);
+                accessLog.log(remoteAddress, request != null ? request.getMethod() : null,
+                        request != null ? request.getRequestTarget() : null, response.getStatusCode().STATUS_CODE, 0, 0);
+            }
+            queueResponse(response, keepConnection);
+            batched++;
+        }
+        readBuffer.compact();
+        if (admittedResponses > 0 && admission.isEnabled()) {
+            admittedHandledNanos = System.nanoTime();
+        }
+
+        if (!pendingWrites.isEmpty()) {
+            if (metrics.isEnabled()) {
+                unwrittenResponses = batched;
+                writeStartNanos = System.nanoTime();
+            }
+            flush();
+        }
+        return keepAlive && batched == MAX_PIPELINED_BATCH && (readBuffer.position() > 0 || httpParser.hasBufferedData());
+    }
+
+    /**
+     * Over its limit or overloaded: answers with the canned 429 or 503 and closes the connection once it is written.
+     */
+    private void reject(HttpRequest request, CannedResponse rejection) {
+        if (body != null) {
+            body.discard();
+            body = null;
+        }
+        byte[] bytes = rejection.bytes();
+        keepAlive = false;
+        pendingWrites.add(ByteBuffer.wrap(bytes));
+        metrics.recordRequest(request, rejection.getResponse());
+        metrics.addBytesSent(bytes.length);
+        accessLog.log(remoteAddress, request.getMethod(), request.getRequestTarget(),
+                rejection.getResponse().getStatusCode().STATUS_CODE, 0, 0);
+    }
+
+    /**
+     * Releases the admitted requests once their responses are written. Their latency ends with their handling,
+     * the time the client takes to read large responses is not the server's.
+     */
+    private void releaseAdmitted() {
+        if (admittedResponses > 0) {
+            // Closed in the middle of a batch, the handling ends now
+            long handledNanos = admittedHandledNanos - admittedStartNanos >= 0 ? admittedHandledNanos : System.nanoTime();
+            long latencyNanos = admission.isEnabled() ? handledNanos - admittedStartNanos : 0;
+            for (; admittedResponses > 0; admittedResponses--) {
+                admission.release(latencyNanos);
+            }
+        }
+    }
+
+    private void queueResponse(HttpResponse response, boolean keepConnection) {
+        keepAlive = keepConnection;
+        keepAlivePolicy.apply(response, keepAlive);
+        // Head and body go out together in the gathering write, the body is not copied
+        metrics.addBytesSent(response.getHeadLength() + response.getBodyLength());
+        PooledBuffer head = bufferPool.acquire(response.getHeadLength());
+        response.writeHead(head.buffer());
+        head.buffer().flip();
+        pendingWrites.add(head);
+        if (response.getMessageBody().length > 0) {
+            pendingWrites.add(ByteBuffer.wrap(response.getMessageBody()));
+        }
+        pendingWrites.addAll(response.getFileBody());
+    }
+
+    /**
+     * Writes as much of the pending responses as the socket accepts, and waits for
+     * the socket to be writable again if it could not take everything.
+     */
+    private void flush() throws IOException {
+        while (!pendingWrites.isEmpty()) {
+            if (!writePending()) {
+                break;
+            }
+        }
+        if (!pendingWrites.isEmpty()) {
+            key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+
+        LOGGER.debug(" * Connection Processing Finished.");
+        if (unwrittenResponses > 0) {
+            // The responses of a batch are written together, each gets the time the batch took
+            long writeNanos = System.nanoTime() - writeStartNanos;
+            for (; unwrittenResponses > 0; unwrittenResponses--) {
+                metrics.recordWrite(writeNanos);
+            }
+        }
+        releaseAdmitted();
+        if (!keepAlive) {
+            close();
+            return;
+        }
+        if (!idle && httpParser.isBetweenRequests()) {
+            idle = true;
+            metrics.connectionIdle();
+        }
+        key.interestOps(SelectionKey.OP_READ);
+    }
+
+    /**
+     * Writes the buffers at the head of the queue in one gathering write, or the file body at its head
+     * with a transferTo.
+     *
+     * @return true if everything that was attempted got written.
+     */
+    private boolean writePending() throws IOException {
+        if (pendingWrites.peek() instanceof FileRegion fileBody) {
+            if (fileBody.transferTo(channel) > 0) {
+                lastActivity = CoarseClock.currentTimeMillis();
+            }
+            if (!fileBody.isDone()) {
+                return false;
+            }
+            fileBody.close();
+            pendingWrites.poll();
+            return true;
+        }
+
+        int count = 0;
+        for (Object pendingWrite : pendingWrites) {
+            ByteBuffer buffer = bufferOf(pendingWrite);
+            if (buffer == null || count == MAX_GATHERED_BUFFERS) {
+                break;
+            }
+            gatheredBuffers[count++] = buffer;
+        }
+        if (channel.write(gatheredBuffers, 0, count) > 0) {
+            lastActivity = CoarseClock.currentTimeMillis();
+        }
+        boolean complete = !gatheredBuffers[count - 1].hasRemaining();
+        Arrays.fill(gatheredBuffers, 0, count, null);
+
+        ByteBuffer written;
+        while ((written = bufferOf(pendingWrites.peek())) != null && !written.hasRemaining()) {
+            if (pendingWrites.poll() instanceof PooledBuffer head) {
+                head.release();
+            }
+        }
+        return complete;
+    }
+
+    private static ByteBuffer bufferOf(Object pendingWrite) {
+        if (pendingWrite instanceof ByteBuffer buffer) {
+            return buffer;
+        }
+        if (pendingWrite instanceof PooledBuffer pooledBuffer) {
+            return pooledBuffer.buffer();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,153 @@
+package com.riad.core.nio;
+
+import com.riad.config.Configuration;
+import com.riad.core.AccessLog;
+import com.riad.core.AdmissionController;
+import com.riad.core.HttpRequestHandler;
+import com.riad.core.KeepAlivePolicy;
+import com.riad.core.RateLimiter;
+import com.riad.http.HttpParser;
+import com.riad.core.metrics.ServerMetrics;
+import com.riad.util.BufferPool;
+import com.riad.util.CoarseClock;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A single thread driving a {@link Selector}. Every connection registered here is read, parsed,
+ * handled and written on this thread, so a {@link NioConnection} is never touched concurrently.
+ */
+public class NioEventLoop extends Thread {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioEventLoop.class);
+
+    private final Selector selector;
+    private final HttpRequestHandler requestHandler;
+    private final KeepAlivePolicy keepAlivePolicy;
+    private final Configuration conf;
+    // Direct buffers for channel I/O, heap buffers for the parsers
+    private final BufferPool directBufferPool;
+    private final BufferPool heapBufferPool;
+    private final AccessLog accessLog;
+    private final ServerMetrics metrics;
+    private final AdmissionController admission;
+    private final RateLimiter rateLimiter;
+
+    // Channels handed over by the acceptor, registered on the loop thread itself
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+
+    public NioEventLoop(String name, HttpRequestHandler requestHandler, Configuration conf,
+                        BufferPool directBufferPool, BufferPool heapBufferPool, AccessLog accessLog,
+                        ServerMetrics metrics, AdmissionController admission, RateLimiter rateLimiter) throws IOException {
+        super(name);
+        this.selector = Selector.open();
+        this.requestHandler = requestHandler;
+        this.keepAlivePolicy = KeepAlivePolicy.fromConfiguration(conf);
+        this.conf = conf;
+        this.directBufferPool = directBufferPool;
+        this.heapBufferPool = heapBufferPool;
+        this.accessLog = accessLog;
+        this.metrics = metrics;
+        this.admission = admission;
+        this.rateLimiter = rateLimiter;
+    }
+
+    public void register(SocketChannel channel) {
+        pendingChannels.add(channel);
+        selector.wakeup();
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            // Wake up regularly, even without traffic, to close idle and stalled connections
+            long sweepInterval = Math.max(1, Math.min(1000,
+                    Math.min(keepAlivePolicy.getIdleTimeoutMillis(), keepAlivePolicy.getWriteTimeoutMillis())));
+            long nextSweep = CoarseClock.currentTimeMillis() + sweepInterval;
+
+            while (running) {
+                selector.select(sweepInterval);
+                registerPendingChannels();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    NioConnection connection = (NioConnection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.onWritable();
+                        }
+                    } catch (IOException e) {
+                        LOGGER.error("Problem with communication", e);
+                        connection.close();
+                    } catch (RuntimeException e) {
+                        // Only this connection is lost, the loop goes on with the others
+                        LOGGER.error("Connection failed", e);
+                        connection.close();
+                    }
+                }
+
+                long now = CoarseClock.currentTimeMillis();
+                if (now >= nextSweep) {
+                    closeTimedOutConnections(now);
+                    nextSweep = now + sweepInterval;
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.error("Event loop failed", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                ((NioConnection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {}
+        }
+    }
+
+    private void registerPendingChannels() {
+        SocketChannel channel;
+        while ((channel = pendingChannels.poll()) != null) {
+            try {
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                key.attach(new NioConnection(channel, key, requestHandler, keepAlivePolicy,
+                        new HttpParser(conf.getMaxUriLength(), conf.getMaxHeaderSize(), conf.getMaxHeaderCount(),
+                                conf.getMaxBodySize(), heapBufferPool),
+                        conf.getBodyMemoryThreshold(), directBufferPool, accessLog, metrics, admission, rateLimiter));
+            } catch (ClosedChannelException e) {
+                LOGGER.debug("Channel closed before registration");
+            }
+        }
+    }
+
+    private void closeTimedOutConnections(long now) {
+        for (SelectionKey key : selector.keys()) {
+            NioConnection connection = (NioConnection) key.attachment();
+            if (connection != null && connection.isTimedOut(now)) {
+                LOGGER.debug("Connection idle or stalled for too long, closing it");
+                connection.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.riad.core.nio;
+
+import com.riad.config.Configuration;
+import com.riad.core.AccessLog;
+import com.riad.core.AdmissionController;
+import com.riad.core.HttpRequestHandler;
+import com.riad.core.RateLimiter;
+import com.riad.core.TcpOptions;
+import com.riad.core.metrics.ServerMetrics;
+import com.riad.util.BufferPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * Non-blocking counterpart of {@link com.riad.core.ServerListenerThread}.
+ * Accepts connections and spreads them round-robin over a fixed set of {@link NioEventLoop}s,
+ * each of which multiplexes its connections on a single {@link java.nio.channels.Selector}.
+ * With several acceptors (see {@link TcpOptions}), each one has its own round-robin over all the loops.
+ */
+public class NioServerListenerThread extends Thread {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NioServerListenerThread.class);
+
+    private int port;
+    private String webroot;
+    // One per acceptor with SO_REUSEPORT, the first one is accepted on by this thread
+    private ServerSocketChannel[] serverChannels;
+    private TcpOptions tcpOptions;
+    private RateLimiter rateLimiter;
+    private ServerMetrics metrics;
+    private NioEventLoop[] eventLoops;
+
+    public NioServerListenerThread(Configuration conf) throws IOException {
+        this.port = conf.getPort();
+        this.webroot = conf.getWebRoot();
+        this.tcpOptions = TcpOptions.fromConfiguration(conf);
+        this.serverChannels = tcpOptions.bind();
+
+        this.metrics = ServerMetrics.fromConfiguration(conf);
+        HttpRequestHandler requestHandler = HttpRequestHandler.fromConfiguration(conf, metrics);
+        int loops = conf.getEventLoopThreads() > 0 ? conf.getEventLoopThreads() : Runtime.getRuntime().availableProcessors();
+        this.eventLoops = new NioEventLoop[loops];
+        BufferPool directBufferPool = BufferPool.fromConfiguration(conf, true);
+        BufferPool heapBufferPool = BufferPool.fromConfiguration(conf, false);
+        AccessLog accessLog = AccessLog.fromConfiguration(conf);
+        AdmissionController admission = AdmissionController.fromConfiguration(conf);
+        metrics.setAdmission(admission::getInFlight, admission::getLimit);
+        this.rateLimiter = RateLimiter.fromConfiguration(conf);
+        metrics.setRateLimitedClients(rateLimiter::getTrackedClients);
+        for (int i = 0; i < loops; i++) {
+            eventLoops[i] = new NioEventLoop("nio-event-loop-" + i, requestHandler, conf, directBufferPool, heapBufferPool, accessLog, metrics, admission, rateLimiter);
+        }
+    }
+
+    @Override
+    public void run() {
+        for (NioEventLoop eventLoop : eventLoops) {
+            eventLoop.start();
+        }
+
+        // Extra acceptors, sharing the single socket when SO_REUSEPORT is not available
+        for (int i = 1; i < tcpOptions.getAcceptors(); i++) {
+            ServerSocketChannel serverChannel = serverChannels[i % serverChannels.length];
+            int first = i % eventLoops.length;
+            Thread acceptor = new Thread(() -> {
+                try {
+                    accept(serverChannel, first);
+                } catch (IOException e) {
+                    if (serverChannel.isOpen()) {
+                        LOGGER.error("Problem with setting the socket", e);
+                    }
+                }
+            }, "nio-acceptor-" + i);
+            acceptor.setDaemon(true);
+            acceptor.start();
+        }
+
+        try {
+            accept(serverChannels[0], 0);
+        } catch (IOException e) {
+            LOGGER.error("Problem with setting the socket", e);
+        } finally {
+            for (ServerSocketChannel serverChannel : serverChannels) {
+                try {
+                    serverChannel.close();
+                } catch (IOException e) {}
+            }
+            for (NioEventLoop eventLoop : eventLoops) {
+                eventLoop.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @param next the event loop the first connection goes to, acceptors start apart to spread the early ones.
+     */
+    private void accept(ServerSocketChannel serverChannel, int next) throws IOException {
+        while (serverChannel.isOpen()) {
+            SocketChannel channel = serverChannel.accept();
+
+            LOGGER.debug("Connection Accepted {}", channel.socket().getInetAddress());
+
+            if (rateLimiter.isExhausted(channel.socket().getInetAddress())) {
+                // Would be refused its first request, answered here while the channel still blocks; the 429
+                // fits in the socket buffer of a new connection
+                metrics.recordRequest(null, rateLimiter.getTooManyRequestsResponse().getResponse());
+                try {
+                    channel.write(ByteBuffer.wrap(rateLimiter.getTooManyRequestsResponse().bytes()));
+                } catch (IOException e) {}
+                try {
+                    channel.close();
+                } catch (IOException e) {}
+                continue;
+            }
+            try {
+                tcpOptions.configure(channel);
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                // Reset before we got to it
+                LOGGER.debug("Could not set up the connection from {}", channel.socket().getInetAddress(), e);
+                try {
+                    channel.close();
+                } catch (IOException ex) {}
+                continue;
+            }
+            eventLoops[next].register(channel);
+            next = (next + 1) % eventLoops.length;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.riad.core.router;
+
+import com.riad.http.HttpRequest;
+import com.riad.http.HttpResponse;
+
+/**
+ * Answers the requests of the routes it is registered for, see {@link Router}.
+ * Shared by every connection, it must hold no per-request state.
+ */
+@FunctionalInterface
+public interface Handler {
+
+    /**
+     * @param params the values the route's {@code {params}} and wildcard matched in the request path.
+     */
+    HttpResponse handle(HttpRequest request, PathParams params);
+}
@@ -0,0 +1,37 @@
+package com.riad.core.router;
+
+/**
+ * The path parameters of a matched route. Values are only cut out of the path when asked for.
+ */
+public final class PathParams {
+
+    public static final PathParams EMPTY = new PathParams(null, new String[0], new int[0]);
+
+    private final String path;
+    private final String[] names;
+    // Start and end of each value in the path, in the order of the names
+    private final int[] bounds;
+
+    PathParams(String path, String[] names, int[] bounds) {
+        this.path = path;
+        this.names = names;
+        this.bounds = bounds;
+    }
+
+    /**
+     * @param name the name between braces in the route pattern, or {@code *} for the wildcard.
+     * @return the value, not URL-decoded, or null if the route has no such parameter.
+     */
+    public String get(String name) {
+        for (int i = 0; i < names.length; i++) {
+            if (names[i].equals(name)) {
+                return path.substring(bounds[2 * i], bounds[2 * i + 1]);
+            }
+        }
+        return null;
+    }
+
+    public int size() {
+        return names.length;
+    }
+}
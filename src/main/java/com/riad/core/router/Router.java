@@ -0,0 +1,287 @@
+package com.riad.core.router;
+
+import com.riad.http.HttpHeaderName;
+import com.riad.http.HttpMethod;
+import com.riad.http.HttpRequest;
+import com.riad.http.HttpResponse;
+import com.riad.http.HttpStatusCode;
+
+import java.util.Arrays;
+import java.util.StringJoiner;
+
+/**
+ * Dispatches requests to the {@link Handler} registered for their method and path.
+ * <p>
+ * Patterns are made of {@code /}-separated segments: static ({@code /users}), parameters matching one
+ * segment ({@code /users/{id}}) and a final wildcard matching the rest of the path ({@code /static/*}).
+ * They are compiled into a trie of segments, so a lookup walks the path once whatever the number of routes,
+ * compares segments in place and allocates nothing unless the route has parameters.
+ * Static segments win over parameters, which win over wildcards.
+ * <p>
+ * A HEAD request falls back to the GET handler of its route.
+ */
+public class Router {
+
+    private static final int METHODS = HttpMethod.values().length;
+
+    private final Node root;
+    // Start and end of the values matched so far, reused by every lookup of a thread
+    private final ThreadLocal<int[]> captures;
+
+    private Router(Node root, int maxParams) {
+        this.root = root;
+        this.captures = ThreadLocal.withInitial(() -> new int[2 * maxParams]);
+    }
+
+    /**
+     * Runs the handler of the request's route, or answers 404 (no route for the path)
+     * or 405 (routes for the path, none for the method).
+     */
+    public HttpResponse dispatch(HttpRequest request) {
+        String target = request.getRequestTarget();
+        int end = target.indexOf('?');
+        if (end < 0) {
+            end = target.length();
+        }
+        HttpMethod method = request.getMethod();
+        int[] captures = this.captures.get();
+
+        Node node = find(target, end, method, captures);
+        if (node == null) {
+            Node other = find(target, end, null, captures);
+            return other == null ? errorResponse(request, HttpStatusCode.CLIENT_ERROR_404_NOT_FOUND)
+                    : methodNotAllowed(request, other);
+        }
+
+        Route route = node.routeFor(method);
+        request.setRoute(route.name);
+        PathParams params = route.paramNames.length == 0
+                ? PathParams.EMPTY
+                : new PathParams(target, route.paramNames, Arrays.copyOf(captures, 2 * route.paramNames.length));
+        return route.handler.handle(request, params);
+    }
+
+    /**
+     * @return the name of the route the request would be dispatched to ("GET /users/{id}"), null if none.
+     */
+    public String routeOf(HttpRequest request) {
+        String target = request.getRequestTarget();
+        int end = target.indexOf('?');
+        if (end < 0) {
+            end = target.length();
+        }
+        Node node = find(target, end, request.getMethod(), captures.get());
+        return node == null ? null : node.routeFor(request.getMethod()).name;
+    }
+
+    /**
+     * @param method the method the route must accept, or null for any.
+     */
+    private Node find(String path, int end, HttpMethod method, int[] captures) {
+        if (path.isEmpty() || path.charAt(0) != '/') {
+            return null;
+        }
+        return find(root, path, 1, end, method, captures, 0);
+    }
+
+    private Node find(Node node, String path, int start, int end, HttpMethod method, int[] captures, int depth) {
+        int segmentEnd = path.indexOf('/', start);
+        if (segmentEnd < 0 || segmentEnd > end) {
+            segmentEnd = end;
+        }
+        int length = segmentEnd - start;
+
+        for (Node child : node.staticChildren) {
+            if (child.segment.length() == length && path.regionMatches(start, child.segment, 0, length)) {
+                Node found = findFrom(child, path, segmentEnd, end, method, captures, depth);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        if (node.paramChild != null && length > 0) {
+            captures[2 * depth] = start;
+            captures[2 * depth + 1] = segmentEnd;
+            Node found = findFrom(node.paramChild, path, segmentEnd, end, method, captures, depth + 1);
+            if (found != null) {
+                return found;
+            }
+        }
+        if (node.wildcardChild != null && node.wildcardChild.accepts(method)) {
+            captures[2 * depth] = start;
+            captures[2 * depth + 1] = end;
+            return node.wildcardChild;
+        }
+        return null;
+    }
+
+    private Node findFrom(Node child, String path, int segmentEnd, int end, HttpMethod method, int[] captures, int depth) {
+        if (segmentEnd == end) {
+            return child.accepts(method) ? child : null;
+        }
+        return find(child, path, segmentEnd + 1, end, method, captures, depth);
+    }
+
+    private static HttpResponse methodNotAllowed(HttpRequest request, Node node) {
+        StringJoiner allow = new StringJoiner(", ");
+        for (HttpMethod method : HttpMethod.values()) {
+            if (node.routeFor(method) != null) {
+                allow.add(method.name());
+            }
+        }
+        return new HttpResponse.Builder()
+                .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                .statusCode(HttpStatusCode.CLIENT_ERROR_405_METHOD_NOT_ALLOWED)
+                .addHeader(HttpHeaderName.ALLOW.headerName, allow.toString())
+                .build();
+    }
+
+    private static HttpResponse errorResponse(HttpRequest request, HttpStatusCode statusCode) {
+        return new HttpResponse.Builder()
+                .httpVersion(request.getBestCompatibleHttpVersion().LITERAL)
+                .statusCode(statusCode)
+                .build();
+    }
+
+    private static final class Route {
+        // "GET /users/{id}"
+        final String name;
+        final Handler handler;
+        final String[] paramNames;
+
+        Route(String name, Handler handler, String[] paramNames) {
+            this.name = name;
+            this.handler = handler;
+            this.paramNames = paramNames;
+        }
+    }
+
+    private static final class Node {
+        // null for parameter and wildcard nodes
+        final String segment;
+        Node[] staticChildren = new Node[0];
+        Node paramChild;
+        Node wildcardChild;
+        // Indexed by method ordinal
+        final Route[] routes = new Route[METHODS];
+
+        Node(String segment) {
+            this.segment = segment;
+        }
+
+        Route routeFor(HttpMethod method) {
+            Route route = routes[method.ordinal()];
+            if (route == null && method == HttpMethod.HEAD) {
+                return routes[HttpMethod.GET.ordinal()];
+            }
+            return route;
+        }
+
+        boolean accepts(HttpMethod method) {
+            if (method != null) {
+                return routeFor(method) != null;
+            }
+            for (Route route : routes) {
+                if (route != null) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        Node staticChild(String segment) {
+            for (Node child : staticChildren) {
+                if (child.segment.equals(segment)) {
+                    return child;
+                }
+            }
+            Node child = new Node(segment);
+            staticChildren = Arrays.copyOf(staticChildren, staticChildren.length + 1);
+            staticChildren[staticChildren.length - 1] = child;
+            return child;
+        }
+    }
+
+    public static class Builder {
+
+        private Node root = new Node(null);
+        private int maxParams = 0;
+
+        /**
+         * @throws IllegalArgumentException if the pattern is malformed or the route already has a handler.
+         */
+        public Builder route(HttpMethod method, String pattern, Handler handler) {
+            if (root == null) {
+                throw new IllegalStateException("Router already built");
+            }
+            if (!pattern.startsWith("/")) {
+                throw new IllegalArgumentException("Route pattern must start with '/': " + pattern);
+            }
+            String[] segments = pattern.substring(1).split("/", -1);
+            String[] paramNames = new String[0];
+            Node node = root;
+            for (int i = 0; i < segments.length; i++) {
+                String segment = segments[i];
+                if (segment.equals("*")) {
+                    if (i != segments.length - 1) {
+                        throw new IllegalArgumentException("Wildcard must end the route pattern: " + pattern);
+                    }
+                    if (node.wildcardChild == null) {
+                        node.wildcardChild = new Node(null);
+                    }
+                    node = node.wildcardChild;
+                    paramNames = append(paramNames, "*");
+                } else if (segment.startsWith("{") && segment.endsWith("}") && segment.length() > 2) {
+                    if (node.paramChild == null) {
+                        node.paramChild = new Node(null);
+                    }
+                    node = node.paramChild;
+                    paramNames = append(paramNames, segment.substring(1, segment.length() - 1));
+                } else if (segment.contains("{") || segment.contains("*")) {
+                    throw new IllegalArgumentException("Malformed segment '" + segment + "' in route pattern: " + pattern);
+                } else {
+                    node = node.staticChild(segment);
+                }
+            }
+
+            if (node.routes[method.ordinal()] != null) {
+                throw new IllegalArgumentException("Route already registered: " + method + " " + pattern);
+            }
+            node.routes[method.ordinal()] = new Route(method + " " + pattern, handler, paramNames);
+            maxParams = Math.max(maxParams, paramNames.length);
+            return this;
+        }
+
+        public Builder get(String pattern, Handler handler) {
+            return route(HttpMethod.GET, pattern, handler);
+        }
+
+        public Builder head(String pattern, Handler handler) {
+            return route(HttpMethod.HEAD, pattern, handler);
+        }
+
+        public Builder post(String pattern, Handler handler) {
+            return route(HttpMethod.POST, pattern, handler);
+        }
+
+        public Builder put(String pattern, Handler handler) {
+            return route(HttpMethod.PUT, pattern, handler);
+        }
+
+        public Builder delete(String pattern, Handler handler) {
+            return route(HttpMethod.DELETE, pattern, handler);
+        }
+
+        public Router build() {
+            Router router = new Router(root, maxParams);
+            root = null;
+            return router;
+        }
+
+        private static String[] append(String[] names, String name) {
+            String[] appended = Arrays.copyOf(names, names.length + 1);
+            appended[names.length] = name;
+            return appended;
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package com.riad.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Collects the body chunks of a request that can't be read lazily (non-blocking connections).
+ * The body stays in memory up to a threshold and is spilled to a temporary file past it,
+ * the file is deleted once the body is closed.
+ */
+public class BodySpool {
+
+    private final int memoryThreshold;
+
+    private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+    private Path file;
+    private FileChannel fileChannel;
+    private long length = 0;
+
+    public BodySpool(int memoryThreshold) {
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    public void append(ByteBuffer chunk) throws IOException {
+        length += chunk.remaining();
+        if (fileChannel == null && memory.size() + chunk.remaining() > memoryThreshold) {
+            spillToFile();
+        }
+
+        if (fileChannel != null) {
+            while (chunk.hasRemaining()) {
+                fileChannel.write(chunk);
+            }
+        } else if (chunk.hasArray()) {
+            memory.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+            chunk.position(chunk.limit());
+        } else {
+            byte[] bytes = new byte[chunk.remaining()];
+            chunk.get(bytes);
+            memory.write(bytes, 0, bytes.length);
+        }
+    }
+
+    public RequestBody toRequestBody() throws IOException {
+        if (fileChannel == null) {
+            return new RequestBody(new ByteArrayInputStream(memory.toByteArray()), length);
+        }
+        fileChannel.close();
+        return new RequestBody(Files.newInputStream(file, StandardOpenOption.DELETE_ON_CLOSE), length);
+    }
+
+    /**
+     * Drops a body that will never be handed out, e.g. when the connection ends in the middle of it.
+     */
+    public void discard() {
+        memory = null;
+        if (fileChannel != null) {
+            try {
+                fileChannel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException e) {}
+        }
+    }
+
+    private void spillToFile() throws IOException {
+        file = Files.createTempFile("http-body-", ".tmp");
+        fileChannel = FileChannel.open(file, StandardOpenOption.WRITE);
+        fileChannel.write(ByteBuffer.wrap(memory.toByteArray()));
+        memory = null;
+    }
+}
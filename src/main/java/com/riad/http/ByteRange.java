@@ -0,0 +1,90 @@
+package com.riad.http;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A satisfiable byte range of a representation, first and last byte included.
+ */
+public class ByteRange {
+
+    // More ranges than that in one request is a way to make us open a file over and over
+    public static final int MAX_RANGES = 16;
+
+    private final long first;
+    private final long last;
+
+    public ByteRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    public long getFirst() {
+        return first;
+    }
+
+    public long getLast() {
+        return last;
+    }
+
+    public long getLength() {
+        return last - first + 1;
+    }
+
+    /**
+     * @return the Content-Range value of this range.
+     */
+    public String toContentRange(long completeLength) {
+        return "bytes " + first + "-" + last + "/" + completeLength;
+    }
+
+    /**
+     * Parses a Range header against a representation of the given length (RFC 9110, 14.2).
+     *
+     * @return the satisfiable ranges, in request order, empty if none is satisfiable; or null if the header
+     * is to be ignored (not a byte range, malformed or too many ranges), the whole representation is served then.
+     */
+    public static List<ByteRange> parse(String rangeHeader, long completeLength) {
+        if (rangeHeader == null || !rangeHeader.regionMatches(true, 0, "bytes=", 0, 6)) {
+            return null;
+        }
+
+        String[] specs = rangeHeader.substring(6).split(",");
+        if (specs.length > MAX_RANGES) {
+            return null;
+        }
+        List<ByteRange> ranges = new ArrayList<>(specs.length);
+        for (String spec : specs) {
+            spec = spec.trim();
+            int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            try {
+                if (dash == 0) {
+                    // Suffix range: the last n bytes
+                    long suffixLength = Long.parseLong(spec.substring(1));
+                    if (suffixLength < 0) {
+                        return null;
+                    }
+                    if (suffixLength > 0 && completeLength > 0) {
+                        ranges.add(new ByteRange(Math.max(0, completeLength - suffixLength), completeLength - 1));
+                    }
+                    continue;
+                }
+                long first = Long.parseLong(spec.substring(0, dash));
+                // "first-" runs to the end of the representation
+                long last = dash == spec.length() - 1 ? Long.MAX_VALUE : Long.parseLong(spec.substring(dash + 1));
+                if (first < 0 || last < first) {
+                    return null;
+                }
+                if (first < completeLength) {
+                    ranges.add(new ByteRange(first, Math.min(last, completeLength - 1)));
+                }
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        return ranges;
+    }
+}
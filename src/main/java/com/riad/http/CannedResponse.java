@@ -0,0 +1,41 @@
+package com.riad.http;
+
+/**
+ * A response sent as is many times over, such as the 503 of load shedding: encoded once, and again only when
+ * the Date header it carries changes, once per second. Sending it costs no allocation and no encoding.
+ */
+public final class CannedResponse {
+
+    private final HttpResponse response;
+    private volatile Encoded encoded;
+
+    private record Encoded(byte[] dateLine, byte[] bytes) {}
+
+    /**
+     * @param response never modified afterwards, its head and in-memory body are what gets sent.
+     */
+    public CannedResponse(HttpResponse response) {
+        this.response = response;
+    }
+
+    /**
+     * @return the encoded response, not to be modified.
+     */
+    public byte[] bytes() {
+        Encoded current = encoded;
+        byte[] dateLine = HttpDate.currentDateLine();
+        if (current == null || current.dateLine != dateLine) {
+            // Threads crossing a second together may each encode it, they get the same bytes
+            current = new Encoded(dateLine, response.getResponseBytes());
+            encoded = current;
+        }
+        return current.bytes;
+    }
+
+    /**
+     * @return the response the bytes are encoded from, for logs and metrics.
+     */
+    public HttpResponse getResponse() {
+        return response;
+    }
+}
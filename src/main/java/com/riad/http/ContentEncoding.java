@@ -0,0 +1,108 @@
+package com.riad.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The content codings the server can produce, in order of preference.
+ */
+public enum ContentEncoding {
+    GZIP("gzip"),
+    DEFLATE("deflate"),
+    IDENTITY("identity");
+
+    public final String token;
+
+    ContentEncoding(String token) {
+        this.token = token;
+    }
+
+    /**
+     * Picks the preferred coding the client accepts, by q-value then by our own order.
+     *
+     * @param acceptEncoding the Accept-Encoding header of the request, may be null.
+     * @return the coding to use, {@link #IDENTITY} if none of ours is accepted.
+     */
+    public static ContentEncoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return IDENTITY;
+        }
+
+        ContentEncoding best = IDENTITY;
+        double bestQuality = 0;
+        double wildcardQuality = -1;
+        double gzipQuality = -1;
+        double deflateQuality = -1;
+        for (String coding : acceptEncoding.split(",")) {
+            String[] parameters = coding.split(";");
+            String token = parameters[0].trim();
+            double quality = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+                    try {
+                        quality = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+            if (token.equalsIgnoreCase(GZIP.token) || token.equalsIgnoreCase("x-gzip")) {
+                gzipQuality = quality;
+            } else if (token.equalsIgnoreCase(DEFLATE.token)) {
+                deflateQuality = quality;
+            } else if (token.equals("*")) {
+                wildcardQuality = quality;
+            }
+        }
+
+        // A coding not listed gets the quality of "*", if any
+        if (gzipQuality < 0) gzipQuality = wildcardQuality;
+        if (deflateQuality < 0) deflateQuality = wildcardQuality;
+        if (gzipQuality > bestQuality) {
+            best = GZIP;
+            bestQuality = gzipQuality;
+        }
+        if (deflateQuality > bestQuality) {
+            best = DEFLATE;
+        }
+        return best;
+    }
+
+    /**
+     * Compresses a whole content, at the best compression level since the result is meant to be cached.
+     * Megabytes take a noticeable time at that level, this is to be called off the request path.
+     */
+    public byte[] encode(byte[] content) throws IOException {
+        if (this == IDENTITY) {
+            return content;
+        }
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream(content.length / 4 + 64);
+        if (this == GZIP) {
+            try (GZIPOutputStream out = new BestGzipOutputStream(encoded)) {
+                out.write(content);
+            }
+        } else {
+            // "deflate" is the zlib format, not raw deflate
+            Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+            try (DeflaterOutputStream out = new DeflaterOutputStream(encoded, deflater)) {
+                out.write(content);
+            } finally {
+                deflater.end();
+            }
+        }
+        return encoded.toByteArray();
+    }
+
+    // GZIPOutputStream creates its own Deflater, at the default level
+    private static class BestGzipOutputStream extends GZIPOutputStream {
+        BestGzipOutputStream(OutputStream out) throws IOException {
+            super(out);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+    }
+}
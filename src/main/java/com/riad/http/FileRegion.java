@@ -0,0 +1,88 @@
+package com.riad.http;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A response body served from a file, written to the connection without being loaded in the heap.
+ * <p>
+ * {@link #transferTo(WritableByteChannel)} uses {@link FileChannel#transferTo}, which becomes a
+ * sendfile on socket channels and copies through a small buffer on any other channel. A region can
+ * also wrap a memory mapped file, which is then written straight from the page cache.
+ * The region keeps track of what was written so it can be resumed on non-blocking connections.
+ */
+public class FileRegion implements Closeable {
+
+    private final FileChannel fileChannel;
+    private final ByteBuffer mapped;
+    private long position;
+    private final long end;
+
+    public FileRegion(FileChannel fileChannel, long position, long count) {
+        this.fileChannel = fileChannel;
+        this.mapped = null;
+        this.position = position;
+        this.end = position + count;
+    }
+
+    /**
+     * @param mapped a mapping of the file, shared with other requests: pass a duplicate of it.
+     */
+    public FileRegion(ByteBuffer mapped) {
+        this.fileChannel = null;
+        this.mapped = mapped;
+        this.position = 0;
+        this.end = mapped.remaining();
+    }
+
+    public static FileRegion of(Path path) throws IOException {
+        FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ);
+        return new FileRegion(fileChannel, 0, fileChannel.size());
+    }
+
+    /**
+     * @return the number of bytes left to write.
+     */
+    public long remaining() {
+        return end - position;
+    }
+
+    public boolean isDone() {
+        return position >= end;
+    }
+
+    /**
+     * Writes as much of the region as the target accepts in one go.
+     *
+     * @return the number of bytes written, 0 if the target is not ready (non-blocking) or the region is done.
+     */
+    public long transferTo(WritableByteChannel target) throws IOException {
+        if (isDone()) {
+            return 0;
+        }
+        if (mapped != null) {
+            int written = target.write(mapped);
+            position += written;
+            return written;
+        }
+        long written = fileChannel.transferTo(position, end - position, target);
+        if (written == 0 && fileChannel.size() < end) {
+            // The file was truncated since the response announced its length
+            throw new IOException("File shrank while being sent");
+        }
+        position += written;
+        return written;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (fileChannel != null) {
+            fileChannel.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.riad.http;
+
+import com.riad.util.CoarseClock;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+/**
+ * HTTP-date, the IMF-fixdate format of RFC 9110: {@code Sun, 06 Nov 1994 08:49:37 GMT}.
+ * <p>
+ * The current date is formatted once per second by the {@link CoarseClock}, along with the
+ * Date header line every response starts with.
+ */
+public final class HttpDate {
+
+    // RFC_1123_DATE_TIME would not pad the day of the month to two digits
+    private static final DateTimeFormatter FORMATTER =
+            DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+    private static volatile String currentDate;
+    private static volatile byte[] currentDateLine;
+
+    static {
+        CoarseClock.onEverySecond(HttpDate::updateCurrentDate);
+    }
+
+    private HttpDate() {
+    }
+
+    public static String format(long epochMillis) {
+        return FORMATTER.format(Instant.ofEpochMilli(epochMillis));
+    }
+
+    /**
+     * @return the current date, formatted at most a second ago.
+     */
+    public static String now() {
+        return currentDate;
+    }
+
+    /**
+     * @return {@code date: <current date>\r\n}, encoded. Always the same length, IMF-fixdate is fixed width.
+     */
+    static byte[] currentDateLine() {
+        return currentDateLine;
+    }
+
+    private static void updateCurrentDate(long epochMillis) {
+        String date = format(epochMillis);
+        byte[] line = (HttpHeaderName.DATE.lowerCaseName + ": " + date + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        currentDate = date;
+        currentDateLine = line;
+    }
+
+    /**
+     * @return the date in milliseconds since the epoch, or -1 if it is not a valid HTTP-date.
+     */
+    public static long parse(String httpDate) {
+        if (httpDate == null) {
+            return -1;
+        }
+        try {
+            return ZonedDateTime.parse(httpDate.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+}
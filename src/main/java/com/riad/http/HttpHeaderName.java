@@ -1,12 +1,99 @@
 package com.riad.http;
 
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
 public enum HttpHeaderName {
     CONTENT_TYPE("Content-Type"),
-    CONTENT_LENGTH("Content-Length");
+    CONTENT_LENGTH("Content-Length"),
+    CONNECTION("Connection"),
+    HOST("Host"),
+    USER_AGENT("User-Agent"),
+    ACCEPT("Accept"),
+    ACCEPT_ENCODING("Accept-Encoding"),
+    ACCEPT_LANGUAGE("Accept-Language"),
+    CACHE_CONTROL("Cache-Control"),
+    TRANSFER_ENCODING("Transfer-Encoding"),
+    CONTENT_ENCODING("Content-Encoding"),
+    VARY("Vary"),
+    ETAG("ETag"),
+    LAST_MODIFIED("Last-Modified"),
+    IF_NONE_MATCH("If-None-Match"),
+    IF_MODIFIED_SINCE("If-Modified-Since"),
+    RANGE("Range"),
+    IF_RANGE("If-Range"),
+    ACCEPT_RANGES("Accept-Ranges"),
+    CONTENT_RANGE("Content-Range"),
+    DATE("Date"),
+    SERVER("Server"),
+    ALLOW("Allow"),
+    RETRY_AFTER("Retry-After");
 
     public final String headerName;
 
+    // Headers are stored lower-cased, the parser hands out these instances for the names it knows
+    final String lowerCaseName;
+    final byte[] lowerCaseBytes;
+
+    private static final HttpHeaderName[] VALUES = values();
+    private static final Map<String, HttpHeaderName> BY_LOWER_CASE_NAME = new HashMap<>();
+
+    static {
+        for (HttpHeaderName name : VALUES) {
+            BY_LOWER_CASE_NAME.put(name.lowerCaseName, name);
+        }
+    }
+
     HttpHeaderName(String headerName) {
         this.headerName = headerName;
+        this.lowerCaseName = headerName.toLowerCase();
+        this.lowerCaseBytes = lowerCaseName.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * @return the known header with this lower-case name, or null.
+     */
+    static HttpHeaderName fromLowerCaseName(String lowerCaseName) {
+        return BY_LOWER_CASE_NAME.get(lowerCaseName);
+    }
+
+    /**
+     * Looks up a header name in a raw request buffer, ignoring case.
+     *
+     * @return the shared lower-case name, or null if the header is not one we know.
+     */
+    static String lowerCaseNameOf(byte[] buffer, int offset, int length) {
+        for (HttpHeaderName name : VALUES) {
+            if (equalsIgnoreCase(name.lowerCaseBytes, buffer, offset, length)) {
+                return name.lowerCaseName;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * ASCII case-insensitive comparison of a known name with a slice of a buffer.
+     */
+    static boolean equalsIgnoreCase(byte[] known, byte[] buffer, int offset, int length) {
+        if (known.length != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            int a = known[i];
+            int b = buffer[offset + i];
+            if (a == b) {
+                continue;
+            }
+            if (!isLetter(a) || (a | 0x20) != (b | 0x20)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLetter(int c) {
+        c |= 0x20;
+        return c >= 'a' && c <= 'z';
     }
 }
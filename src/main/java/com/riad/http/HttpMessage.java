@@ -1,10 +1,12 @@
 package com.riad.http;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Set;
 
 public abstract class HttpMessage {
-    private HashMap<String, String> headers = new HashMap<>();
+    // Insertion order is kept, responses write their headers in the order they were added
+    private LinkedHashMap<String, String> headers = new LinkedHashMap<>();
 
     private byte[] messageBody = new byte[0];
 
@@ -1,10 +1,17 @@
 package com.riad.http;
 
+import java.nio.charset.StandardCharsets;
+
 public enum HttpMethod {
     GET , HEAD , POST , PUT , DELETE ;
 
     public static final int MAX_LENGTH;
 
+    // values() copies the array on every call, the parser uses this one instead
+    private static final HttpMethod[] VALUES = values();
+
+    private final byte[] nameBytes = name().getBytes(StandardCharsets.US_ASCII);
+
     static {
         int tempMaxLength = -1;
         for (HttpMethod method : values()) {
@@ -14,4 +21,18 @@ public enum HttpMethod {
         }
         MAX_LENGTH = tempMaxLength;
     }
+
+    /**
+     * Finds the method spelled by the given bytes, ignoring case, without creating a String.
+     *
+     * @return the method, or null if it is not one we know.
+     */
+    static HttpMethod fromBytes(byte[] buffer, int offset, int length) {
+        for (HttpMethod method : VALUES) {
+            if (HttpHeaderName.equalsIgnoreCase(method.nameBytes, buffer, offset, length)) {
+                return method;
+            }
+        }
+        return null;
+    }
 }
@@ -1,212 +1,854 @@
 package com.riad.http;
 
+import com.riad.util.BufferPool;
+import com.riad.util.PooledBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Arrays;
 
+/**
+ * Byte level, resumable HTTP/1.1 request parser.
+ * <p>
+ * The parser is a state machine fed with whatever bytes arrived on the connection through
+ * {@link #feed(ByteBuffer)}; it keeps its state between calls so a request can come in any number of pieces.
+ * The head of the request is accumulated in a buffer owned by the parser and reused from one request
+ * to the next, so bytes of a pipelined request that arrived along with the previous one are kept.
+ * Body bytes are handed out as slices of the fed buffer, without copy.
+ * <p>
+ * Method, version and known header names are matched directly on the bytes; Strings are only
+ * created for the values stored in the {@link HttpRequest}.
+ * <p>
+ * {@link #parseHttpRequest(InputStream)} drives the same state machine for blocking streams; there the
+ * request is returned as soon as its head is parsed and the body is read lazily through {@link RequestBody}.
+ */
 public class HttpParser {
 
+    public enum ParseResult {
+        /** The bytes fed so far don't go further, feed more. */
+        NEED_MORE,
+        /** Request line and headers are parsed, {@link #getRequest()} can be inspected. */
+        HEADERS_COMPLETE,
+        /** A piece of the (de-chunked) body is available through {@link #getBodyChunk()}. */
+        BODY_CHUNK,
+        /** The request is complete, the next call starts parsing the following request. */
+        REQUEST_COMPLETE
+    }
+
+    private enum State {
+        REQUEST_START, METHOD, TARGET, VERSION, REQUEST_LINE_LF,
+        HEADER_LINE_START, HEADER_NAME, HEADER_VALUE, HEADER_LF, HEADERS_END_LF,
+        BODY_START, BODY_IDENTITY,
+        CHUNK_SIZE, CHUNK_EXTENSION, CHUNK_SIZE_LF, CHUNK_DATA, CHUNK_DATA_CR, CHUNK_DATA_LF,
+        TRAILER_LINE_START, TRAILER_LINE, TRAILER_LF, TRAILERS_END_LF,
+        COMPLETE
+    }
+
     private final static Logger LOGGER = LoggerFactory.getLogger(HttpParser.class);
     private static final int SP = 0x20; // 32
     private static final int CR = 0x0D; // 13
     private static final int LF = 0x0A; // 10
+    private static final int HTAB = 0x09; // 9
+    private static final int COLON = 0x3A; // 58
+    private static final int SEMICOLON = 0x3B; // 59
 
-    public HttpRequest parseHttpRequest(InputStream inputStream) throws IOException {
-        InputStreamReader reader = new InputStreamReader(inputStream , StandardCharsets.US_ASCII);
+    public static final int DEFAULT_MAX_URI_LENGTH = 8 * 1024;
+    public static final int DEFAULT_MAX_HEADER_SIZE = 16 * 1024;
+    public static final int DEFAULT_MAX_HEADER_COUNT = 100;
+    public static final long DEFAULT_MAX_BODY_SIZE = 64L * 1024 * 1024;
 
-        HttpRequest request = new HttpRequest();
+    private static final int INITIAL_BUFFER_SIZE = 4 * 1024;
+    private static final int STREAM_BUFFER_SIZE = 8 * 1024;
+    // "HTTP/1.1" with room for a few more digits, longer than that is not a version
+    private static final int MAX_VERSION_LENGTH = 16;
+    private static final int MAX_CHUNK_EXTENSION_LENGTH = 1024;
+    // Chunks above 256MB are not something we accept
+    private static final int MAX_CHUNK_SIZE_DIGITS = 7;
 
-        parseRequestLine(reader , request);
-        parseHeaders(reader , request);
-        parseBody(reader , request);
+    // tchar from RFC 9110, the characters allowed in a header field name
+    private static final boolean[] TOKEN_CHARS = new boolean[256];
 
-        return request;
+    static {
+        for (int c = '0'; c <= '9'; c++) TOKEN_CHARS[c] = true;
+        for (int c = 'A'; c <= 'Z'; c++) TOKEN_CHARS[c] = true;
+        for (int c = 'a'; c <= 'z'; c++) TOKEN_CHARS[c] = true;
+        for (char c : "!#$%&'*+-.^_`|~".toCharArray()) TOKEN_CHARS[c] = true;
     }
 
-    private void parseRequestLine(InputStreamReader reader, HttpRequest request) throws IOException, HttpParsingException {
-        StringBuilder sb = new StringBuilder();
+    private final int maxUriLength;
+    private final int maxHeaderSize;
+    private final int maxHeaderCount;
+    private final long maxBodySize;
+    private final int maxBufferSize;
 
-        boolean methodParsed = false;
-        boolean requestTargetParsed = false;
+    // Heap pool the parser buffers are borrowed from, null to allocate them
+    private final BufferPool bufferPool;
+    private PooledBuffer pooledBuffer;
+    private PooledBuffer pooledStreamBuffer;
 
-        // TODO validate URI size!
+    // Head of the current request, then whatever followed it in the same read; allocated on first use
+    private byte[] buffer;
+    private ByteBuffer bufferView;
+    private int position = 0; // start of the bytes not handed out yet
+    private int scan = 0;     // next byte for the head state machine
+    private int limit = 0;    // end of the bytes copied so far
 
-        int _byte;
-        while ((_byte = reader.read()) >=0) {
-            if (_byte == CR) {
-                _byte = reader.read();
-                if (_byte == LF) {
-                    LOGGER.debug("Request Line VERSION to Process : {}" , sb.toString());
-                    if (!methodParsed || !requestTargetParsed) {
-                        throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
-                    }
+    private State state = State.REQUEST_START;
+    private HttpRequest request = new HttpRequest();
+    private ByteBuffer bodyChunk;
+
+    // Offsets in the buffer of the token being parsed
+    private int tokenStart;
+    private int nameEnd;
+    private int valueStart;
+    private int valueEnd;
+    private int headersStart;
+    private int headerCount;
+
+    private long bodyLength; // announced length, -1 for chunked
+    private long bodyReceived;
+    private long bodyRemaining;
+    private long chunkSize;
+    private int chunkSizeDigits;
+    private int extensionLength;
+    private int trailerLength;
+
+    // For the metrics: when the first byte of the current request was seen (System.nanoTime), -1 before,
+    // and the bytes parseHttpRequest read from its stream
+    private long requestStartNanos = -1;
+    private long bytesRead = 0;
+
+    // Only used by parseHttpRequest, kept in "read mode"
+    private ByteBuffer streamBuffer;
+    private InputStream inputStream;
+    private BodyInputStream bodyInputStream;
+    // Reading the body failed midway: where the next request starts is unknown
+    private boolean bodyFailed = false;
+
+    public HttpParser() {
+        this(DEFAULT_MAX_URI_LENGTH, DEFAULT_MAX_HEADER_SIZE, DEFAULT_MAX_HEADER_COUNT, DEFAULT_MAX_BODY_SIZE, null);
+    }
 
-                    try {
-                        request.setHttpVersion(sb.toString());
-                    } catch (BadHttpVersionException e) {
+    /**
+     * @param bufferPool a heap pool to borrow the parser buffers from, or null. Buffers are borrowed on first
+     *                   use, by the thread running the connection, and given back by {@link #release()}.
+     */
+    public HttpParser(int maxUriLength, int maxHeaderSize, int maxHeaderCount, long maxBodySize, BufferPool bufferPool) {
+        if (bufferPool != null && bufferPool.isDirect()) {
+            throw new IllegalArgumentException("The parser needs a heap buffer pool");
+        }
+        this.bufferPool = bufferPool;
+        this.maxUriLength = maxUriLength;
+        this.maxHeaderSize = maxHeaderSize;
+        this.maxHeaderCount = maxHeaderCount;
+        this.maxBodySize = maxBodySize;
+        // The whole head of a request has to fit: request line + headers
+        this.maxBufferSize = HttpMethod.MAX_LENGTH + maxUriLength + MAX_VERSION_LENGTH + maxHeaderSize + 8;
+    }
+
+    /**
+     * Parses the head of the next request of a blocking connection. The body is not read here: it is
+     * exposed by {@link HttpRequest#getBody()} and pulled from the stream when the handler reads it.
+     * Whatever the handler of the previous request left unread of its body is skipped first.
+     * <p>
+     * Bytes read past the end of the request stay in the parser, see {@link #hasBufferedData()}.
+     *
+     * @param inputStream the connection input stream, always the same one for a given parser.
+     * @return the parsed request, or null if the stream ended before a new request started.
+     * @throws IllegalStateException if reading the previous body failed, see {@link #isBodyFailed()}.
+     */
+    public HttpRequest parseHttpRequest(InputStream inputStream) throws IOException {
+        if (bodyFailed) {
+            throw new IllegalStateException("The previous request body could not be read");
+        }
+        this.inputStream = inputStream;
+        if (streamBuffer == null) {
+            if (bufferPool != null) {
+                pooledStreamBuffer = bufferPool.acquire(STREAM_BUFFER_SIZE);
+                streamBuffer = pooledStreamBuffer.buffer().flip();
+            } else {
+                streamBuffer = ByteBuffer.allocate(STREAM_BUFFER_SIZE).flip();
+            }
+        }
+        if (bodyInputStream != null) {
+            bodyInputStream.close();
+            bodyInputStream = null;
+        }
+
+        while (true) {
+            switch (feed(streamBuffer)) {
+                case NEED_MORE -> {
+                    if (!readMore()) {
+                        if (isBetweenRequests()) {
+                            return null;
+                        }
+                        // The connection ended in the middle of a request
                         throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
                     }
+                }
+                case HEADERS_COMPLETE -> {
+                    if (bodyLength != 0) {
+                        bodyInputStream = new BodyInputStream();
+                        request.setBody(new RequestBody(bodyInputStream, bodyLength));
+                    }
+                    return request;
+                }
+                // The previous request ends here, when it had no body
+                case BODY_CHUNK, REQUEST_COMPLETE -> {}
+            }
+        }
+    }
 
-                    return;
-                } else {
-                    throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+    /**
+     * @return false if the stream ended.
+     */
+    private boolean readMore() throws IOException {
+        streamBuffer.compact();
+        int read = -1;
+        try {
+            read = inputStream.read(streamBuffer.array(), streamBuffer.position(), streamBuffer.remaining());
+            if (read > 0) {
+                bytesRead += read;
+            }
+        } finally {
+            // Back in read mode even when the read throws
+            streamBuffer.position(streamBuffer.position() + Math.max(read, 0)).flip();
+        }
+        return read >= 0;
+    }
+
+    /**
+     * Advances the parser with the bytes available in the given buffer. Bytes are consumed from the buffer
+     * as they are parsed; the buffer may still have remaining bytes when an event other than
+     * {@link ParseResult#NEED_MORE} is returned, call again with it to continue.
+     *
+     * @throws HttpParsingException if the request is invalid, the connection should then be closed.
+     */
+    public ParseResult feed(ByteBuffer input) throws HttpParsingException {
+        if (buffer == null) {
+            allocateBuffer();
+        }
+        if (state == State.COMPLETE) {
+            startNextRequest();
+        }
+        if (requestStartNanos < 0 && (input.hasRemaining() || position < limit)) {
+            requestStartNanos = System.nanoTime();
+        }
+
+        if (state.ordinal() < State.BODY_START.ordinal()) {
+            while (!parseHead()) {
+                if (!input.hasRemaining()) {
+                    return ParseResult.NEED_MORE;
                 }
+                copyToBuffer(input);
             }
+            prepareBody();
+            return ParseResult.HEADERS_COMPLETE;
+        }
 
-            if (_byte == SP) {
-                if (!methodParsed) {
-                    LOGGER.debug("Request Line METHOD to Process : {}" , sb.toString());
-                    request.setMethod(sb.toString());
-                    methodParsed = true;
-                } else if (!requestTargetParsed) {
-                    LOGGER.debug("Request Line REQ TARGET to Process : {}" , sb.toString());
-                    request.setRequestTarget(sb.toString());
-                    requestTargetParsed = true;
-                } else {
-                    throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+        if (state == State.BODY_START) {
+            startBody();
+        }
+        return parseBody(input);
+    }
+
+    public HttpRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * @return the body bytes of the last {@link ParseResult#BODY_CHUNK}, only valid until the next call to feed.
+     */
+    public ByteBuffer getBodyChunk() {
+        return bodyChunk;
+    }
+
+    /**
+     * @return once the headers are parsed: the announced body length, 0 without body, -1 for a chunked body.
+     */
+    public long getBodyLength() {
+        return bodyLength;
+    }
+
+    /**
+     * @return the {@link System#nanoTime()} at which the parser got the first byte of the current request.
+     */
+    public long getRequestStartNanos() {
+        return requestStartNanos;
+    }
+
+    /**
+     * @return the bytes {@link #parseHttpRequest(InputStream)} read from its stream so far.
+     */
+    public long getBytesRead() {
+        return bytesRead;
+    }
+
+    /**
+     * @return true if bytes of a following (pipelined) request were already read from the stream.
+     */
+    public boolean hasBufferedData() {
+        return position < limit || streamBuffer != null && streamBuffer.hasRemaining();
+    }
+
+    /**
+     * @return true if reading the body of the last request of a blocking stream failed (timeout, truncated or
+     * invalid body): the connection can't be reused, it must be closed.
+     */
+    public boolean isBodyFailed() {
+        return bodyFailed;
+    }
+
+    /**
+     * @return true if the parser is not in the middle of a request, a good time for the connection to end.
+     */
+    public boolean isBetweenRequests() {
+        return state == State.COMPLETE || state == State.REQUEST_START && position == limit;
+    }
+
+    private void startNextRequest() {
+        // Move the bytes of the next request, if any, to the start of the buffer
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            limit -= position;
+            position = 0;
+        }
+        scan = 0;
+        request = new HttpRequest();
+        bodyChunk = null;
+        headerCount = 0;
+        requestStartNanos = -1;
+        state = State.REQUEST_START;
+    }
+
+    /**
+     * Runs the head state machine over the bytes copied so far.
+     *
+     * @return true once the empty line ending the headers was parsed.
+     */
+    private boolean parseHead() throws HttpParsingException {
+        while (scan < limit) {
+            int _byte = buffer[scan] & 0xFF;
+            switch (state) {
+                case REQUEST_START -> {
+                    // Be lenient with empty lines in front of a request (RFC 9112 section 2.2)
+                    if (_byte == CR || _byte == LF) {
+                        position = ++scan;
+                    } else {
+                        tokenStart = scan;
+                        state = State.METHOD;
+                    }
                 }
-                sb.delete(0, sb.length());
-            } else {
-                sb.append((char)_byte);
-                if (!methodParsed) {
-                    if (sb.length() > HttpMethod.MAX_LENGTH) {
+                case METHOD -> {
+                    if (_byte == SP) {
+                        HttpMethod method = HttpMethod.fromBytes(buffer, tokenStart, scan - tokenStart);
+                        if (method == null) {
+                            throw new HttpParsingException(HttpStatusCode.SERVER_ERROR_501_NOT_IMPLEMENTED);
+                        }
+                        request.setMethod(method);
+                        tokenStart = ++scan;
+                        state = State.TARGET;
+                    } else if (_byte == CR || _byte == LF) {
+                        throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+                    } else if (scan - tokenStart >= HttpMethod.MAX_LENGTH) {
                         throw new HttpParsingException(HttpStatusCode.SERVER_ERROR_501_NOT_IMPLEMENTED);
+                    } else {
+                        scan++;
+                    }
+                }
+                case TARGET -> {
+                    if (_byte == SP) {
+                        request.setRequestTarget(new String(buffer, tokenStart, scan - tokenStart, StandardCharsets.ISO_8859_1));
+                        tokenStart = ++scan;
+                        state = State.VERSION;
+                    } else if (_byte < SP || _byte == 0x7F) {
+                        throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+                    } else if (scan - tokenStart >= maxUriLength) {
+                        throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_414_URI_TOO_LONG);
+                    } else {
+                        scan++;
                     }
                 }
+                case VERSION -> {
+                    if (_byte == CR) {
+                        setHttpVersion(tokenStart, scan);
+                        scan++;
+                        state = State.REQUEST_LINE_LF;
+                    } else if (_byte == SP || _byte == LF || scan - tokenStart >= MAX_VERSION_LENGTH) {
+                        throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+                    } else {
+                        scan++;
+                    }
+                }
+                case REQUEST_LINE_LF -> {
+                    expectLf(_byte);
+                    headersStart = ++scan;
+                    state = State.HEADER_LINE_START;
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Request Line : {} {} {}", request.getMethod(), request.getRequestTarget(), request.getOriginalHttpVersion());
+                    }
+                }
+                case HEADER_LINE_START -> {
+                    checkHeaderSize();
+                    if (_byte == CR) {
+                        scan++;
+                        state = State.HEADERS_END_LF;
+                    } else {
+                        tokenStart = scan;
+                        state = State.HEADER_NAME;
+                    }
+                }
+                case HEADER_NAME -> {
+                    checkHeaderSize();
+                    if (_byte == COLON) {
+                        if (scan == tokenStart) {
+                            throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+                        }
+                        nameEnd = scan++;
+                        valueStart = -1;
+                        valueEnd = -1;
+                        state = State.HEADER_VALUE;
+                    } else if (!TOKEN_CHARS[_byte]) {
+                        // Covers whitespace before the colon and obsolete line folding too
+                        throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+                    } else {
+                        scan++;
+                    }
+                }
+                case HEADER_VALUE -> {
+                    checkHeaderSize();
+                    // The value is kept without the surrounding whitespace
+                    if (_byte == CR) {
+                        scan++;
+                        state = State.HEADER_LF;
+                    } else if (_byte == SP || _byte == HTAB) {
+                        scan++;
+                    } else if (_byte < SP || _byte == 0x7F) {
+                        throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+                    } else {
+                        if (valueStart < 0) {
+                            valueStart = scan;
+                        }
+                        valueEnd = ++scan;
+                    }
+                }
+                case HEADER_LF -> {
+                    expectLf(_byte);
+                    scan++;
+                    addHeader();
+                    state = State.HEADER_LINE_START;
+                }
+                case HEADERS_END_LF -> {
+                    // Empty line, end of Headers section
+                    expectLf(_byte);
+                    position = ++scan;
+                    return true;
+                }
+                default -> throw new IllegalStateException("Not parsing a request head: " + state);
             }
         }
+        return false;
+    }
 
+    private void setHttpVersion(int start, int end) throws HttpParsingException {
+        HttpVersion version = HttpVersion.fromBytes(buffer, start, end - start);
+        if (version != null) {
+            request.setHttpVersion(version);
+            return;
+        }
+        try {
+            request.setHttpVersion(new String(buffer, start, end - start, StandardCharsets.US_ASCII));
+        } catch (BadHttpVersionException e) {
+            throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+        }
     }
 
-    private void parseHeaders(InputStreamReader reader, HttpRequest request) throws IOException, HttpParsingException {
-        StringBuilder processingDataBuffer = new StringBuilder();
-        boolean crlfFound = false;
+    private void addHeader() throws HttpParsingException {
+        if (++headerCount > maxHeaderCount) {
+            throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_431_REQUEST_HEADER_FIELDS_TOO_LARGE);
+        }
 
-        int _byte;
-        while ((_byte = reader.read()) >=0) {
-            if (_byte == CR) {
-                _byte = reader.read();
-                if (_byte == LF) {
-                    if (!crlfFound) {
-                        crlfFound = true;
+        String fieldName = HttpHeaderName.lowerCaseNameOf(buffer, tokenStart, nameEnd - tokenStart);
+        if (fieldName == null) {
+            fieldName = new String(buffer, tokenStart, nameEnd - tokenStart, StandardCharsets.US_ASCII).toLowerCase();
+        }
+        String fieldValue = valueStart < 0 ? "" : new String(buffer, valueStart, valueEnd - valueStart, StandardCharsets.ISO_8859_1);
+        // Repeated framing headers are checked rather than overwritten, the body must be read one way only
+        if (fieldName.equals(HttpHeaderName.CONTENT_LENGTH.lowerCaseName)) {
+            String previous = request.getHeader(fieldName);
+            if (previous != null && !previous.equals(fieldValue)) {
+                throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+            }
+        } else if (fieldName.equals(HttpHeaderName.TRANSFER_ENCODING.lowerCaseName)) {
+            String previous = request.getHeader(fieldName);
+            if (previous != null) {
+                fieldValue = previous + ", " + fieldValue;
+            }
+        }
+        request.addHeader(fieldName, fieldValue);
+    }
 
-                        // Do Things like processing
-                        processSingleHeaderField(processingDataBuffer, request);
-                        // Clear the buffer
-                        processingDataBuffer.delete(0, processingDataBuffer.length());
-                    } else {
-                        // Two CRLF received, end of Headers section
-                        return;
-                    }
-                } else {
-                    throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
-                }
-            } else {
-                crlfFound = false;
-                // Append to Buffer
-                processingDataBuffer.append((char)_byte);
+    private void checkHeaderSize() throws HttpParsingException {
+        if (scan - headersStart >= maxHeaderSize) {
+            throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_431_REQUEST_HEADER_FIELDS_TOO_LARGE);
+        }
+    }
+
+    private void allocateBuffer() {
+        if (bufferPool != null) {
+            pooledBuffer = bufferPool.acquire(INITIAL_BUFFER_SIZE);
+            buffer = pooledBuffer.buffer().array();
+        } else {
+            buffer = new byte[INITIAL_BUFFER_SIZE];
+        }
+        bufferView = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Gives the borrowed buffers back to the pool, once the connection is done with the parser.
+     * Body chunks handed out before are not valid anymore.
+     */
+    public void release() {
+        if (pooledBuffer != null) {
+            pooledBuffer.release();
+            pooledBuffer = null;
+        }
+        if (pooledStreamBuffer != null) {
+            pooledStreamBuffer.release();
+            pooledStreamBuffer = null;
+        }
+        buffer = null;
+        bufferView = null;
+        streamBuffer = null;
+    }
+
+    /**
+     * Copies as much of the input as possible after the bytes of the head already received.
+     */
+    private void copyToBuffer(ByteBuffer input) throws HttpParsingException {
+        if (limit == buffer.length) {
+            if (buffer.length >= maxBufferSize) {
+                throw new HttpParsingException(state == State.TARGET
+                        ? HttpStatusCode.CLIENT_ERROR_414_URI_TOO_LONG
+                        : HttpStatusCode.CLIENT_ERROR_431_REQUEST_HEADER_FIELDS_TOO_LARGE);
+            }
+            // Growing keeps the offsets of the tokens being parsed valid
+            buffer = Arrays.copyOf(buffer, Math.min(buffer.length * 2, maxBufferSize));
+            bufferView = ByteBuffer.wrap(buffer);
+            if (pooledBuffer != null) {
+                // Rare enough for the grown buffer not to be pooled
+                pooledBuffer.release();
+                pooledBuffer = null;
             }
         }
+        int length = Math.min(input.remaining(), buffer.length - limit);
+        input.get(buffer, limit, length);
+        limit += length;
     }
 
-    private void processSingleHeaderField(StringBuilder processingDataBuffer, HttpRequest request) throws HttpParsingException {
-        String rawHeaderField = processingDataBuffer.toString();
-        Pattern pattern = Pattern.compile("^(?<fieldName>[!#$%&’*+\\-./^_‘|˜\\dA-Za-z]+):\\s?(?<fieldValue>[!#$%&’*+\\-./^_‘|˜(),:;<=>?@[\\\\]{}\" \\dA-Za-z]+)\\s?$");
+    /**
+     * Looks at the headers to know what body follows, so an oversized body is refused before it is read.
+     */
+    private void prepareBody() throws HttpParsingException {
+        state = State.BODY_START;
+        bodyReceived = 0;
+
+        // Check if the request has a body (e.g., POST or PUT method)
+        String contentLengthHeader = request.getHeader(HttpHeaderName.CONTENT_LENGTH.headerName);
+        String transferEncoding = request.getHeader(HttpHeaderName.TRANSFER_ENCODING.headerName);
+        if (transferEncoding != null) {
+            // Framed both ways, a proxy in front may read the body the other way: the rest would be smuggled in
+            // as another request
+            if (contentLengthHeader != null) {
+                throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+            }
+            checkTransferCodings(transferEncoding);
+            bodyLength = -1;
+        } else if (contentLengthHeader != null) {
+            bodyLength = parseContentLength(contentLengthHeader);
+            if (bodyLength > maxBodySize) {
+                throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_413_CONTENT_TOO_LARGE);
+            }
+        } else {
+            bodyLength = 0;
+        }
+    }
 
-        Matcher matcher = pattern.matcher(rawHeaderField);
-        if (matcher.matches()) {
-            // We found a proper header
-            String fieldName = matcher.group("fieldName");
-            String fieldValue = matcher.group("fieldValue");
-            request.addHeader(fieldName, fieldValue);
-        } else{
+    /**
+     * Content-Length is 1*DIGIT (RFC 9110 section 8.6). Long.parseLong would also take a sign, "+7", which a
+     * proxy in front may read differently.
+     */
+    private static long parseContentLength(String value) throws HttpParsingException {
+        if (value.isEmpty()) {
             throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
         }
+        long length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            int digit = value.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+            }
+            if (length > (Long.MAX_VALUE - digit) / 10) {
+                throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_413_CONTENT_TOO_LARGE);
+            }
+            length = length * 10 + digit;
+        }
+        return length;
     }
 
-    private void parseBody(InputStreamReader reader, HttpRequest request) throws IOException, HttpParsingException {
-        // Check if the request has a body (e.g., POST or PUT method)
-        String contentLengthHeader = request.getHeader("Content-Length");
-        if (contentLengthHeader != null) {
-            try {
-                int contentLength = Integer.parseInt(contentLengthHeader);
-                if (contentLength < 0) {
-                    throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+    /**
+     * Only a request whose last transfer coding is chunked has a body we can find the end of; chunked applied
+     * twice is invalid too. Codings under it (gzip, deflate...) are not decoded.
+     */
+    private static void checkTransferCodings(String transferEncoding) throws HttpParsingException {
+        String[] codings = transferEncoding.split(",");
+        boolean chunkedLast = false;
+        boolean other = false;
+        for (String coding : codings) {
+            coding = coding.trim();
+            if (coding.isEmpty()) {
+                continue;
+            }
+            if (chunkedLast) {
+                // Something after chunked, or chunked twice
+                throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+            }
+            if (coding.equalsIgnoreCase("chunked")) {
+                chunkedLast = true;
+            } else {
+                other = true;
+            }
+        }
+        if (!chunkedLast) {
+            throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+        }
+        if (other) {
+            throw new HttpParsingException(HttpStatusCode.SERVER_ERROR_501_NOT_IMPLEMENTED);
+        }
+    }
+
+    private void startBody() {
+        if (bodyLength > 0) {
+            bodyRemaining = bodyLength;
+            state = State.BODY_IDENTITY;
+        } else if (bodyLength < 0) {
+            startChunk();
+        } else {
+            state = State.COMPLETE;
+        }
+    }
+
+    private void startChunk() {
+        chunkSize = 0;
+        chunkSizeDigits = 0;
+        extensionLength = 0;
+        state = State.CHUNK_SIZE;
+    }
+
+    private ParseResult parseBody(ByteBuffer input) throws HttpParsingException {
+        while (state != State.COMPLETE) {
+            // What followed the head in the parser buffer comes first
+            ByteBuffer source = position < limit ? bufferView.limit(limit).position(position) : input;
+            if ((state == State.BODY_IDENTITY || state == State.CHUNK_DATA) && bodyRemaining > 0) {
+                if (!source.hasRemaining()) {
+                    return ParseResult.NEED_MORE;
                 }
+                int length = (int) Math.min(bodyRemaining, source.remaining());
+                bodyChunk = source.slice(source.position(), length);
+                advance(source, length);
+                bodyRemaining -= length;
+                if (bodyRemaining == 0 && state == State.CHUNK_DATA) {
+                    state = State.CHUNK_DATA_CR;
+                }
+                return ParseResult.BODY_CHUNK;
+            }
+            if (state == State.BODY_IDENTITY) {
+                state = State.COMPLETE;
+                break;
+            }
+
+            if (!source.hasRemaining()) {
+                return ParseResult.NEED_MORE;
+            }
+            int _byte = source.get(source.position()) & 0xFF;
+            advance(source, 1);
+            parseChunkFraming(_byte);
+        }
+        return ParseResult.REQUEST_COMPLETE;
+    }
+
+    private void advance(ByteBuffer source, int length) {
+        source.position(source.position() + length);
+        if (source == bufferView) {
+            position += length;
+        }
+    }
 
-                // Read the body content into a byte array
-                byte[] bodyBuffer = new byte[contentLength];
-                for (int i = 0; i < contentLength; i++) {
-                    int _byte = reader.read();
-                    if (_byte == -1) {
+    /**
+     * The chunked transfer coding around the chunk data: sizes, extensions, CRLFs and trailers.
+     */
+    private void parseChunkFraming(int _byte) throws HttpParsingException {
+        switch (state) {
+            case CHUNK_SIZE -> {
+                int digit = Character.digit(_byte, 16);
+                if (digit >= 0) {
+                    if (++chunkSizeDigits > MAX_CHUNK_SIZE_DIGITS) {
                         throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
                     }
-                    bodyBuffer[i] = (byte) _byte;
+                    chunkSize = chunkSize * 16 + digit;
+                    if (bodyReceived + chunkSize > maxBodySize) {
+                        throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_413_CONTENT_TOO_LARGE);
+                    }
+                } else if (chunkSizeDigits == 0) {
+                    throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+                } else if (_byte == CR) {
+                    state = State.CHUNK_SIZE_LF;
+                } else if (_byte == SEMICOLON || _byte == SP || _byte == HTAB) {
+                    state = State.CHUNK_EXTENSION;
+                } else {
+                    throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+                }
+            }
+            case CHUNK_EXTENSION -> {
+                // Extensions are ignored
+                if (_byte == CR) {
+                    state = State.CHUNK_SIZE_LF;
+                } else if (++extensionLength > MAX_CHUNK_EXTENSION_LENGTH) {
+                    throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+                }
+            }
+            case CHUNK_SIZE_LF -> {
+                expectLf(_byte);
+                if (chunkSize == 0) {
+                    // Final chunk
+                    trailerLength = 0;
+                    state = State.TRAILER_LINE_START;
+                } else {
+                    bodyRemaining = chunkSize;
+                    bodyReceived += chunkSize;
+                    state = State.CHUNK_DATA;
+                }
+            }
+            case CHUNK_DATA_CR -> {
+                if (_byte != CR) {
+                    throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
                 }
+                state = State.CHUNK_DATA_LF;
+            }
+            case CHUNK_DATA_LF -> {
+                expectLf(_byte);
+                startChunk();
+            }
+            case TRAILER_LINE_START -> state = _byte == CR ? State.TRAILERS_END_LF : State.TRAILER_LINE;
+            case TRAILER_LINE -> {
+                // Trailer fields are skipped
+                if (++trailerLength > maxHeaderSize) {
+                    throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_431_REQUEST_HEADER_FIELDS_TOO_LARGE);
+                }
+                if (_byte == CR) {
+                    state = State.TRAILER_LF;
+                }
+            }
+            case TRAILER_LF -> {
+                expectLf(_byte);
+                state = State.TRAILER_LINE_START;
+            }
+            case TRAILERS_END_LF -> {
+                expectLf(_byte);
+                state = State.COMPLETE;
+            }
+            default -> throw new IllegalStateException("Not parsing a chunked body: " + state);
+        }
+    }
 
-                request.setMessageBody(bodyBuffer); // Set the body
-            } catch (NumberFormatException e) {
-                throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+    private static void expectLf(int _byte) throws HttpParsingException {
+        if (_byte != LF) {
+            throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
+        }
+    }
+
+    /**
+     * The body of the current request as read by its handler, straight from the connection.
+     */
+    private class BodyInputStream extends InputStream {
+
+        private ByteBuffer chunk = ByteBuffer.allocate(0);
+        private boolean finished = false;
+
+        @Override
+        public int read() throws IOException {
+            while (!chunk.hasRemaining()) {
+                if (!nextChunk()) {
+                    return -1;
+                }
             }
-        } else if ("chunked".equalsIgnoreCase(request.getHeader("Transfer-Encoding"))) {
-            // Handle chunked transfer encoding
-            ByteArrayOutputStream bodyBuffer = new ByteArrayOutputStream();
-            StringBuilder chunkSizeBuffer = new StringBuilder();
+            return chunk.get() & 0xFF;
+        }
 
-            int _byte;
-            while ((_byte = reader.read()) >= 0) {
-                if (_byte == CR) {
-                    _byte = reader.read();
-                    if (_byte == LF) {
-                        // End of chunk size or content
-                        if (chunkSizeBuffer.length() == 0) {
-                            // Reached the end of the body
-                            break;
-                        }
+        @Override
+        public int read(byte[] destination, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            while (!chunk.hasRemaining()) {
+                if (!nextChunk()) {
+                    return -1;
+                }
+            }
+            int read = Math.min(length, chunk.remaining());
+            chunk.get(destination, offset, read);
+            return read;
+        }
 
-                        int chunkSize = Integer.parseInt(chunkSizeBuffer.toString().trim(), 16);
-                        chunkSizeBuffer.delete(0, chunkSizeBuffer.length());
+        @Override
+        public int available() {
+            return chunk.remaining();
+        }
 
-                        if (chunkSize == 0) {
-                            // Final chunk
-                            break;
-                        }
+        /**
+         * Skips what is left of the body, so the parser is ready for the next request.
+         */
+        @Override
+        public void close() throws IOException {
+            chunk = ByteBuffer.allocate(0);
+            while (nextChunk()) {
+                chunk = ByteBuffer.allocate(0);
+            }
+        }
 
-                        // Read the chunk data
-                        for (int i = 0; i < chunkSize; i++) {
-                            int chunkByte = reader.read();
-                            if (chunkByte == -1) {
-                                throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
-                            }
-                            bodyBuffer.write(chunkByte);
-                        }
+        private boolean nextChunk() throws IOException {
+            if (bodyFailed) {
+                throw new IOException("The request body could not be read");
+            }
+            try {
+                return feedNextChunk();
+            } catch (IOException | RuntimeException e) {
+                bodyFailed = true;
+                throw e;
+            }
+        }
 
-                        // Consume the CRLF after the chunk
-                        _byte = reader.read();
-                        if (_byte != CR) {
+        private boolean feedNextChunk() throws IOException {
+            while (!finished) {
+                switch (feed(streamBuffer)) {
+                    case NEED_MORE -> {
+                        if (!readMore()) {
                             throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
                         }
-                        _byte = reader.read();
-                        if (_byte != LF) {
-                            throw new HttpParsingException(HttpStatusCode.CLIENT_ERROR_400_BAD_REQUEST);
-                        }
-                    } else {
-                        chunkSizeBuffer.append((char) _byte);
                     }
-                } else {
-                    chunkSizeBuffer.append((char) _byte);
+                    case BODY_CHUNK -> {
+                        chunk = bodyChunk;
+                        return true;
+                    }
+                    case REQUEST_COMPLETE -> finished = true;
+                    case HEADERS_COMPLETE -> throw new IllegalStateException("Body already finished");
                 }
             }
-
-            request.setMessageBody(bodyBuffer.toByteArray()); // Set the body
+            return false;
         }
     }
-
 }
@@ -1,11 +1,18 @@
 package com.riad.http;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+
 public class HttpRequest extends HttpMessage{
 
     private HttpMethod method;
     private String requestTarget;
     private String originalHttpVersion; // literal from the request
     private HttpVersion bestCompatibleHttpVersion;
+    private RequestBody body = RequestBody.EMPTY;
+    private String route; // set by the router, for the metrics
+    private InetAddress remoteAddress; // set by the connection
 
     HttpRequest() {
     }
@@ -26,6 +33,61 @@ public class HttpRequest extends HttpMessage{
         return originalHttpVersion;
     }
 
+    public RequestBody getBody() {
+        return body;
+    }
+
+    /**
+     * Reads the whole body in memory, see {@link #getBody()} to stream it instead.
+     */
+    @Override
+    public byte[] getMessageBody() {
+        try {
+            return body.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void setMessageBody(byte[] messageBody) {
+        this.body = RequestBody.of(messageBody);
+    }
+
+    public void setBody(RequestBody body) {
+        this.body = body;
+    }
+
+    /**
+     * @return the name of the route that matched the request ("GET /users/{id}"), or null if none did.
+     */
+    public String getRoute() {
+        return route;
+    }
+
+    public void setRoute(String route) {
+        this.route = route;
+    }
+
+    /**
+     * @return the address of the client, set by the connection, null if unknown.
+     */
+    public InetAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public void setRemoteAddress(InetAddress remoteAddress) {
+        this.remoteAddress = remoteAddress;
+    }
+
+    /**
+     * HTTP/1.1 connections are persistent unless the client asks for "Connection: close".
+     */
+    public boolean isKeepAlive() {
+        String connection = getHeader(HttpHeaderName.CONNECTION.headerName);
+        return connection == null || !connection.toLowerCase().contains("close");
+    }
+
     void setMethod(String methodName) throws HttpParsingException {
         try {
             this.method = HttpMethod.valueOf(methodName.toUpperCase());
@@ -36,6 +98,10 @@ public class HttpRequest extends HttpMessage{
         }
     }
 
+    void setMethod(HttpMethod method) {
+        this.method = method;
+    }
+
     void setRequestTarget(String requestTarget) throws HttpParsingException {
         if (requestTarget == null || requestTarget.length() == 0) {
             throw new HttpParsingException(HttpStatusCode.SERVER_ERROR_500_INTERNAL_SERVER_ERROR);
@@ -53,4 +119,9 @@ public class HttpRequest extends HttpMessage{
         }
     }
 
+    void setHttpVersion(HttpVersion version) {
+        this.originalHttpVersion = version.LITERAL;
+        this.bestCompatibleHttpVersion = version;
+    }
+
 }
\ No newline at end of file
@@ -1,8 +1,20 @@
 package com.riad.http;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
 public class HttpResponse extends HttpMessage {
 
-    private final String CRLF = "\r\n";
+    private static final byte[] CRLF_BYTES = {'\r', '\n'};
+    private static final byte[] COLON_SP = {':', ' '};
+    private static final byte[] CONTENT_LENGTH_PREFIX =
+            (HttpHeaderName.CONTENT_LENGTH.lowerCaseName + ": ").getBytes(StandardCharsets.US_ASCII);
+    private static final String SERVER_NAME = "Riad-HttpServer";
+    private static final byte[] SERVER_LINE =
+            (HttpHeaderName.SERVER.lowerCaseName + ": " + SERVER_NAME + "\r\n").getBytes(StandardCharsets.US_ASCII);
 
     // status-line = HTTP-version SP status-code SP reason-phrase CRLF
     private String httpVersion;
@@ -11,6 +23,9 @@ public class HttpResponse extends HttpMessage {
 
     private String reasonPhrase = null;
 
+    // Body streamed from disk instead of the in-memory message body, several regions for a multipart body
+    private final List<FileRegion> fileBody = new ArrayList<>();
+
     private HttpResponse() {
     }
 
@@ -41,34 +56,176 @@ public class HttpResponse extends HttpMessage {
         this.reasonPhrase = reasonPhrase;
     }
 
+    /**
+     * @return the regions making the body, written in order; empty if the body is in memory.
+     */
+    public List<FileRegion> getFileBody() {
+        return fileBody;
+    }
+
+    public void addFileBody(FileRegion fileRegion) {
+        this.fileBody.add(fileRegion);
+    }
+
+    public void setHeader(String headerName, String headerField) {
+        addHeader(headerName, headerField);
+    }
+
+    /**
+     * Serializes the status line, the headers and the in-memory body in a single array.
+     * A {@link #getFileBody() file body} is not included, the connection writes it right after these bytes.
+     * Connections rather write {@link #writeHead(ByteBuffer) the head} and the body separately, without this copy.
+     */
     public byte[] getResponseBytes() {
-        StringBuilder responseBuilder = new StringBuilder();
-        responseBuilder.append(httpVersion)
-                .append(" ")
-                .append(statusCode.STATUS_CODE)
-                .append(" ")
-                .append(getReasonPhrase())
-                .append(CRLF);
+        byte[] responseBytes = new byte[getHeadLength() + getMessageBody().length];
+        ByteBuffer buffer = ByteBuffer.wrap(responseBytes);
+        writeHead(buffer);
+        buffer.put(getMessageBody());
+        return responseBytes;
+    }
+
+    /**
+     * @return the status line and the headers in a buffer of their exact size, ready to be written.
+     */
+    public ByteBuffer encodeHead() {
+        ByteBuffer head = ByteBuffer.allocate(getHeadLength());
+        writeHead(head);
+        return head.flip();
+    }
+
+    /**
+     * @return the number of bytes {@link #writeHead(ByteBuffer)} writes.
+     */
+    public int getHeadLength() {
+        int length = versionBytes().length + statusLineSuffixLength();
+        if (needsDate()) {
+            length += HttpDate.currentDateLine().length;
+        }
+        if (needsServer()) {
+            length += SERVER_LINE.length;
+        }
+        for (Map.Entry<String, String> header : getHeaders().entrySet()) {
+            length += header.getKey().length() + COLON_SP.length + header.getValue().length() + CRLF_BYTES.length;
+        }
+        if (needsContentLength()) {
+            length += CONTENT_LENGTH_PREFIX.length + digits(getBodyLength()) + CRLF_BYTES.length;
+        }
+        return length + CRLF_BYTES.length;
+    }
+
+    /**
+     * Writes the status line and the headers, in the order they were added, in a single pass.
+     * Status lines, known header names and the Date and Server headers are copied from bytes encoded beforehand;
+     * values are written as ISO-8859-1.
+     *
+     * @param target a buffer with at least {@link #getHeadLength()} bytes remaining.
+     */
+    public void writeHead(ByteBuffer target) {
+        target.put(versionBytes());
+        if (reasonPhrase == null) {
+            target.put(statusCode.statusLineSuffix);
+        } else {
+            target.put((byte) ' ');
+            putNumber(target, statusCode.STATUS_CODE);
+            target.put((byte) ' ');
+            putLatin1(target, reasonPhrase);
+            target.put(CRLF_BYTES);
+        }
+        // Unless the handler set its own
+        if (needsDate()) {
+            target.put(HttpDate.currentDateLine());
+        }
+        if (needsServer()) {
+            target.put(SERVER_LINE);
+        }
+
+        for (Map.Entry<String, String> header : getHeaders().entrySet()) {
+            HttpHeaderName knownName = HttpHeaderName.fromLowerCaseName(header.getKey());
+            if (knownName != null) {
+                target.put(knownName.lowerCaseBytes);
+            } else {
+                putLatin1(target, header.getKey());
+            }
+            target.put(COLON_SP);
+            putLatin1(target, header.getValue());
+            target.put(CRLF_BYTES);
+        }
 
-        for (String headerName: getHeaderNames()) {
-            responseBuilder.append(headerName)
-                    .append(": ")
-                    .append(getHeader(headerName))
-                    .append(CRLF);
+        if (needsContentLength()) {
+            target.put(CONTENT_LENGTH_PREFIX);
+            putNumber(target, getBodyLength());
+            target.put(CRLF_BYTES);
         }
+        target.put(CRLF_BYTES);
+    }
+
+    // Without it a client on a persistent connection can't tell where the response ends.
+    // A 304 has no body by definition, a length there would describe the representation.
+    private boolean needsContentLength() {
+        return getHeader(HttpHeaderName.CONTENT_LENGTH.headerName) == null
+                && statusCode != HttpStatusCode.REDIRECTION_304_NOT_MODIFIED;
+    }
 
-        responseBuilder.append(CRLF);
+    private boolean needsDate() {
+        return !getHeaders().containsKey(HttpHeaderName.DATE.lowerCaseName);
+    }
+
+    private boolean needsServer() {
+        return !getHeaders().containsKey(HttpHeaderName.SERVER.lowerCaseName);
+    }
 
-        byte[] responseBytes = responseBuilder.toString().getBytes();
+    /**
+     * @return the length of the body, in memory or still to be sent from files.
+     */
+    public long getBodyLength() {
+        return fileBody.isEmpty() ? getMessageBody().length : getFileBodyLength();
+    }
 
-        if (getMessageBody().length == 0)
-            return responseBytes;
+    private byte[] versionBytes() {
+        return HttpVersion.HTTP_1_1.LITERAL.equals(httpVersion)
+                ? HttpVersion.HTTP_1_1.literalBytes
+                : httpVersion.getBytes(StandardCharsets.ISO_8859_1);
+    }
 
-        byte[] responseWithBody = new byte[responseBytes.length + getMessageBody().length];
-        System.arraycopy(responseBytes, 0, responseWithBody, 0, responseBytes.length);
-        System.arraycopy(getMessageBody(), 0, responseWithBody, responseBytes.length, getMessageBody().length);
+    private int statusLineSuffixLength() {
+        if (reasonPhrase == null) {
+            return statusCode.statusLineSuffix.length;
+        }
+        return 1 + digits(statusCode.STATUS_CODE) + 1 + reasonPhrase.length() + CRLF_BYTES.length;
+    }
 
-        return responseWithBody;
+    private static void putLatin1(ByteBuffer target, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            target.put(c < 256 ? (byte) c : (byte) '?');
+        }
+    }
+
+    private static void putNumber(ByteBuffer target, long number) {
+        int start = target.position();
+        int length = digits(number);
+        for (int i = length - 1; i >= 0; i--) {
+            target.put(start + i, (byte) ('0' + number % 10));
+            number /= 10;
+        }
+        target.position(start + length);
+    }
+
+    private static int digits(long number) {
+        int digits = 1;
+        while (number >= 10) {
+            number /= 10;
+            digits++;
+        }
+        return digits;
+    }
+
+    private long getFileBodyLength() {
+        long length = 0;
+        for (FileRegion fileRegion : fileBody) {
+            length += fileRegion.remaining();
+        }
+        return length;
     }
 
     public static class Builder {
@@ -100,6 +257,11 @@ public class HttpResponse extends HttpMessage {
             return this;
         }
 
+        public Builder fileBody(FileRegion fileRegion) {
+            response.addFileBody(fileRegion);
+            return this;
+        }
+
         public HttpResponse build() {
             return response;
         }
@@ -1,15 +1,26 @@
 package com.riad.http;
 
+import java.nio.charset.StandardCharsets;
+
 public enum HttpStatusCode {
 
+    SUCCESS_206_PARTIAL_CONTENT(206, "Partial Content"),
+    REDIRECTION_304_NOT_MODIFIED(304, "Not Modified"),
+
     CLIENT_ERROR_400_BAD_REQUEST(400, "Bad Request"),
     CLIENT_ERROR_401_METHOD_NOT_ALLOWED(401, "Method Not Allowed"),
-    CLIENT_ERROR_414_BAD_REQUEST(414, "URI Too Long"),
+    CLIENT_ERROR_413_CONTENT_TOO_LARGE(413, "Content Too Large"),
+    CLIENT_ERROR_414_URI_TOO_LONG(414, "URI Too Long"),
     CLIENT_ERROR_404_NOT_FOUND(404, "Not Found" ),
+    CLIENT_ERROR_405_METHOD_NOT_ALLOWED(405, "Method Not Allowed"),
+    CLIENT_ERROR_416_RANGE_NOT_SATISFIABLE(416, "Range Not Satisfiable"),
+    CLIENT_ERROR_429_TOO_MANY_REQUESTS(429, "Too Many Requests"),
+    CLIENT_ERROR_431_REQUEST_HEADER_FIELDS_TOO_LARGE(431, "Request Header Fields Too Large"),
 
     /* --- SERVER ERRORS --- */
     SERVER_ERROR_500_INTERNAL_SERVER_ERROR(500, "Internal Server Error"),
     SERVER_ERROR_501_NOT_IMPLEMENTED(501, "Not Implemented"),
+    SERVER_ERROR_503_SERVICE_UNAVAILABLE(503, "Service Unavailable"),
     SERVER_ERROR_505_HTTP_VERSION_NOT_SUPPORTED(505, "Http Version Not Supported"),
     OK(200,"OK" );
 
@@ -17,8 +28,12 @@ public enum HttpStatusCode {
     public final int STATUS_CODE;
     public final String MESSAGE;
 
+    // " 200 OK\r\n", the status line after the version, encoded once
+    final byte[] statusLineSuffix;
+
     HttpStatusCode(int STATUS_CODE, String MESSAGE) {
         this.STATUS_CODE = STATUS_CODE;
         this.MESSAGE = MESSAGE;
+        this.statusLineSuffix = (" " + STATUS_CODE + " " + MESSAGE + "\r\n").getBytes(StandardCharsets.US_ASCII);
     }
 }
@@ -1,19 +1,47 @@
 package com.riad.http;
 
+import java.nio.charset.StandardCharsets;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public enum HttpVersion {
     HTTP_1_1("HTTP/1.1", 1 , 1);
 
+    // Looked up once per parsed request, values() would clone the array each time
+    private static final HttpVersion[] VALUES = values();
+
     public final String LITERAL;
     public final int MAJOR;
     public final int MINOR;
 
+    final byte[] literalBytes;
+
     HttpVersion(String LITERAL, int MAJOR, int MINOR) {
         this.LITERAL = LITERAL;
         this.MAJOR = MAJOR;
         this.MINOR = MINOR;
+        this.literalBytes = LITERAL.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Fast path for the parser: an exact match of a version we implement, without regex nor String.
+     *
+     * @return the version, or null if the bytes are not exactly one of our literals.
+     */
+    static HttpVersion fromBytes(byte[] buffer, int offset, int length) {
+        for (HttpVersion version : VALUES) {
+            if (version.literalBytes.length != length) {
+                continue;
+            }
+            boolean matches = true;
+            for (int i = 0; i < length && matches; i++) {
+                matches = version.literalBytes[i] == buffer[offset + i];
+            }
+            if (matches) {
+                return version;
+            }
+        }
+        return null;
     }
 
     private static final Pattern httpVersionRegexPattern = Pattern.compile("^HTTP/(?<major>\\d+).(?<minor>\\d+)");
@@ -27,7 +55,7 @@ public enum HttpVersion {
         int minor = Integer.parseInt(matcher.group("minor"));
 
         HttpVersion tempBestCompatible = null;
-        for (HttpVersion version : HttpVersion.values()) {
+        for (HttpVersion version : VALUES) {
             if (version.LITERAL.equals(literalVersion)) {
                 return version;
             } else {
@@ -0,0 +1,75 @@
+package com.riad.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The body of a request, consumed lazily.
+ * <p>
+ * Depending on the engine the bytes come straight from the connection or from a spool in memory or in a
+ * temporary file; either way nothing is copied into a byte array unless {@link #toByteArray()} is called.
+ * The connection closes the body once the request is handled, which skips whatever was not read.
+ */
+public class RequestBody implements Closeable {
+
+    public static final RequestBody EMPTY = new RequestBody(null, 0);
+
+    private final InputStream stream;
+    private final long length;
+    private byte[] bytes;
+
+    /**
+     * @param stream the body bytes, null for an empty body.
+     * @param length the announced length, or -1 if unknown (chunked).
+     */
+    public RequestBody(InputStream stream, long length) {
+        this.stream = stream;
+        this.length = length;
+    }
+
+    public static RequestBody of(byte[] bytes) {
+        RequestBody body = new RequestBody(null, bytes.length);
+        body.bytes = bytes;
+        return body;
+    }
+
+    /**
+     * @return the length of the body, or -1 if the client did not announce it.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    public boolean isEmpty() {
+        return length == 0;
+    }
+
+    /**
+     * Returns the body as a stream. Reading it may block on the connection; it can only be read once.
+     */
+    public InputStream getInputStream() {
+        if (bytes != null) {
+            return new ByteArrayInputStream(bytes);
+        }
+        return stream == null ? InputStream.nullInputStream() : stream;
+    }
+
+    /**
+     * Reads what is left of the body in memory. Prefer {@link #getInputStream()} for bodies that can be large.
+     */
+    public byte[] toByteArray() throws IOException {
+        if (bytes == null) {
+            bytes = stream == null ? new byte[0] : stream.readAllBytes();
+        }
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (stream != null) {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.riad.util;
+
+import com.riad.config.Configuration;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Size-classed pool of {@link ByteBuffer}s, direct or heap.
+ * <p>
+ * Sizes are rounded up to a power of two between {@link #MIN_POOLED_SIZE} and {@link #MAX_POOLED_SIZE};
+ * larger buffers are allocated and dropped as usual. Each thread first uses a small cache of its own,
+ * which is all an event loop needs in steady state, then a shared queue per size class. Virtual threads,
+ * one per connection, have no cache: the buffers parked in it would be lost when the connection ends.
+ * <p>
+ * With leak detection on, a buffer that is garbage collected without having been released is logged
+ * with the stack trace of its acquisition.
+ */
+public class BufferPool {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BufferPool.class);
+    private static final Cleaner LEAK_CLEANER = Cleaner.create();
+
+    public static final int MIN_POOLED_SIZE = 512;
+    public static final int MAX_POOLED_SIZE = 64 * 1024;
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_POOLED_SIZE);
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_POOLED_SIZE) - MIN_SHIFT + 1;
+    // Thread.isVirtual(), null before Java 21. A handle rather than a Method, it is called on every acquire and release
+    private static final MethodHandle IS_VIRTUAL = findIsVirtual();
+
+    private final boolean direct;
+    private final int maxPooledPerClass;
+    private final int threadCacheSize;
+    private final boolean leakDetection;
+
+    private final Queue<ByteBuffer>[] sharedQueues;
+    private final AtomicInteger[] sharedCounts;
+    private final ThreadLocal<ArrayDeque<ByteBuffer>[]> threadCaches;
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder leaked = new LongAdder();
+
+    @SuppressWarnings("unchecked")
+    public BufferPool(boolean direct, int maxPooledPerClass, int threadCacheSize, boolean leakDetection) {
+        this.direct = direct;
+        this.maxPooledPerClass = maxPooledPerClass;
+        this.threadCacheSize = threadCacheSize;
+        this.leakDetection = leakDetection;
+        this.sharedQueues = (Queue<ByteBuffer>[]) new Queue<?>[SIZE_CLASSES];
+        this.sharedCounts = new AtomicInteger[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            sharedQueues[i] = new ConcurrentLinkedQueue<>();
+            sharedCounts[i] = new AtomicInteger();
+        }
+        this.threadCaches = ThreadLocal.withInitial(() -> {
+            ArrayDeque<ByteBuffer>[] caches = (ArrayDeque<ByteBuffer>[]) new ArrayDeque<?>[SIZE_CLASSES];
+            for (int i = 0; i < SIZE_CLASSES; i++) {
+                caches[i] = new ArrayDeque<>(threadCacheSize);
+            }
+            return caches;
+        });
+    }
+
+    /**
+     * @param direct direct buffers for channel I/O, heap buffers when their array is needed (streams).
+     */
+    public static BufferPool fromConfiguration(Configuration conf, boolean direct) {
+        return new BufferPool(direct, conf.getBufferPoolMaxPerSizeClass(), conf.getBufferPoolThreadCacheSize(),
+                conf.isBufferPoolLeakDetection());
+    }
+
+    /**
+     * Borrows a cleared buffer of at least the given capacity. It must be {@link PooledBuffer#release() released}
+     * once done with, and not used afterwards.
+     */
+    public PooledBuffer acquire(int capacity) {
+        acquired.increment();
+        int sizeClass = sizeClassOf(capacity);
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            ArrayDeque<ByteBuffer>[] threadCache = threadCache();
+            buffer = threadCache != null ? threadCache[sizeClass].pollLast() : null;
+            if (buffer == null) {
+                buffer = sharedQueues[sizeClass].poll();
+                if (buffer != null) {
+                    sharedCounts[sizeClass].decrementAndGet();
+                }
+            }
+        }
+        if (buffer == null) {
+            allocated.increment();
+            int size = sizeClass >= 0 ? MIN_POOLED_SIZE << sizeClass : capacity;
+            buffer = direct ? ByteBuffer.allocateDirect(size) : ByteBuffer.allocate(size);
+        } else {
+            buffer.clear();
+        }
+        return new PooledBuffer(this, buffer, leakDetection ? new Throwable("Buffer acquired here") : null);
+    }
+
+    void release(ByteBuffer buffer) {
+        released.increment();
+        int sizeClass = sizeClassOf(buffer.capacity());
+        if (sizeClass < 0 || buffer.capacity() != MIN_POOLED_SIZE << sizeClass) {
+            return; // Not one of ours, left to the GC
+        }
+        ArrayDeque<ByteBuffer>[] threadCache = threadCache();
+        if (threadCache != null && threadCache[sizeClass].size() < threadCacheSize) {
+            threadCache[sizeClass].addLast(buffer);
+        } else if (sharedCounts[sizeClass].incrementAndGet() <= maxPooledPerClass) {
+            sharedQueues[sizeClass].add(buffer);
+        } else {
+            sharedCounts[sizeClass].decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the cache of the current thread, null on a virtual thread.
+     */
+    private ArrayDeque<ByteBuffer>[] threadCache() {
+        return isVirtualThread() ? null : threadCaches.get();
+    }
+
+    private static boolean isVirtualThread() {
+        if (IS_VIRTUAL == null) {
+            return false;
+        }
+        try {
+            return (boolean) IS_VIRTUAL.invokeExact(Thread.currentThread());
+        } catch (Throwable e) {
+            return false;
+        }
+    }
+
+    private static MethodHandle findIsVirtual() {
+        try {
+            return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    Cleaner.Cleanable trackLeak(PooledBuffer pooledBuffer, PooledBuffer.State state) {
+        return LEAK_CLEANER.register(pooledBuffer, () -> {
+            if (!state.released) {
+                leaked.increment();
+                LOGGER.error("Pooled buffer garbage collected without being released", state.acquiredAt);
+            }
+        });
+    }
+
+    private static int sizeClassOf(int capacity) {
+        if (capacity > MAX_POOLED_SIZE) {
+            return -1;
+        }
+        if (capacity <= MIN_POOLED_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(capacity - 1) - MIN_SHIFT;
+    }
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+    public long getAcquired() {
+        return acquired.sum();
+    }
+
+    public long getReleased() {
+        return released.sum();
+    }
+
+    /**
+     * @return the buffers in use right now.
+     */
+    public long getOutstanding() {
+        return acquired.sum() - released.sum();
+    }
+
+    /**
+     * @return the buffers that had to be allocated, the rest of the acquisitions were served by the pool.
+     */
+    public long getAllocated() {
+        return allocated.sum();
+    }
+
+    /**
+     * @return the buffers found unreleased by the leak detection.
+     */
+    public long getLeaked() {
+        return leaked.sum();
+    }
+
+    @Override
+    public String toString() {
+        return (direct ? "direct" : "heap") + " buffer pool: acquired=" + getAcquired() + ", allocated=" + getAllocated()
+                + ", outstanding=" + getOutstanding() + ", leaked=" + getLeaked();
+    }
+}
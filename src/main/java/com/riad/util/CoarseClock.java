@@ -0,0 +1,72 @@
+package com.riad.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
+
+/**
+ * Server-wide clock read by the hot paths (timeouts, revalidation, logs) instead of the system clock.
+ * <p>
+ * A daemon thread refreshes it every {@link #RESOLUTION_MILLIS} ms and, once per second, runs the
+ * listeners that keep time-derived values (the Date header) pre-formatted.
+ */
+public final class CoarseClock {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CoarseClock.class);
+
+    public static final long RESOLUTION_MILLIS = 10;
+
+    private static volatile long currentTimeMillis = System.currentTimeMillis();
+    private static final List<LongConsumer> SECOND_LISTENERS = new CopyOnWriteArrayList<>();
+
+    static {
+        Thread ticker = new Thread(CoarseClock::tick, "coarse-clock");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    private CoarseClock() {
+    }
+
+    /**
+     * @return the time in milliseconds since the epoch, at most {@link #RESOLUTION_MILLIS} ms behind.
+     */
+    public static long currentTimeMillis() {
+        return currentTimeMillis;
+    }
+
+    /**
+     * Runs the listener now and then every time the clock enters a new second, on the clock thread.
+     * It must be quick, every other listener waits for it.
+     */
+    public static void onEverySecond(LongConsumer listener) {
+        listener.accept(currentTimeMillis);
+        SECOND_LISTENERS.add(listener);
+    }
+
+    private static void tick() {
+        long lastSecond = currentTimeMillis / 1000;
+        while (true) {
+            try {
+                Thread.sleep(RESOLUTION_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long now = System.currentTimeMillis();
+            currentTimeMillis = now;
+            if (now / 1000 != lastSecond) {
+                lastSecond = now / 1000;
+                for (LongConsumer listener : SECOND_LISTENERS) {
+                    try {
+                        listener.accept(now);
+                    } catch (RuntimeException e) {
+                        LOGGER.error("Clock listener failed", e);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -1,15 +1,26 @@
 package com.riad.util;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.*;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class Json {
 
-    private static ObjectMapper mapper = defaultMapper();
+    private static final ObjectMapper mapper = defaultMapper();
+    // Readers are immutable and costly to set up, one per target type
+    private static final ConcurrentHashMap<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
 
     public static ObjectMapper defaultMapper() {
         ObjectMapper om = new ObjectMapper();
         om.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        // Request bodies are closed by their connection
+        om.configure(JsonParser.Feature.AUTO_CLOSE_SOURCE, false);
         return om;
     }
 
@@ -17,6 +28,68 @@ public class Json {
         return mapper.readTree(json);
     }
 
+    /**
+     * Builds the tree of a document read from a stream, when the whole of it is needed.
+     * {@link #validate(InputStream)} and {@link #read(InputStream, Class)} don't build one.
+     */
+    public static JsonNode parse(InputStream json) throws IOException {
+        return mapper.readTree(json);
+    }
+
+    /**
+     * Checks that the stream holds exactly one well-formed JSON document, in a single streaming pass:
+     * nothing is kept in memory, neither the text nor a tree. The encoding is detected from the bytes.
+     *
+     * @return the first token of the document ({@link JsonToken#START_OBJECT}, {@link JsonToken#START_ARRAY}
+     * or a scalar), or null if the stream is empty.
+     * @throws JsonParseException if the document is malformed or followed by something else.
+     */
+    public static JsonToken validate(InputStream json) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(json)) {
+            return validate(parser);
+        }
+    }
+
+    /**
+     * @see #validate(InputStream)
+     */
+    public static JsonToken validate(byte[] json) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(json)) {
+            return validate(parser);
+        }
+    }
+
+    private static JsonToken validate(JsonParser parser) throws IOException {
+        JsonToken root = parser.nextToken();
+        if (root == null) {
+            return null;
+        }
+        // Reads every token of the document, values are checked without being decoded
+        parser.skipChildren();
+        if (parser.nextToken() != null) {
+            throw new JsonParseException(parser, "Unexpected content after the JSON document");
+        }
+        return root;
+    }
+
+    /**
+     * @return the shared reader binding JSON to the given type.
+     */
+    public static ObjectReader reader(Class<?> type) {
+        return readers.computeIfAbsent(type, mapper::readerFor);
+    }
+
+    /**
+     * Binds a document read from a stream straight to the given type, without building a tree.
+     */
+    public static <A> A read(InputStream json, Class<A> type) throws IOException {
+        return reader(type).readValue(json);
+    }
+
+    public static <A> A read(byte[] json, Class<A> type) throws IOException {
+        return reader(type).readValue(json);
+    }
+
     public static <A> A fromJson(JsonNode node, Class<A> clazz) throws JsonProcessingException {
         return mapper.treeToValue(node, clazz);
     }
@@ -25,6 +98,10 @@ public class Json {
         return mapper.valueToTree(obj);
     }
 
+    public static byte[] toJsonBytes(Object obj) throws JsonProcessingException {
+        return mapper.writeValueAsBytes(obj);
+    }
+
     public String stringify(JsonNode node) throws JsonProcessingException {
         return generateJson(node,false);
     }
@@ -0,0 +1,50 @@
+package com.riad.util;
+
+import java.lang.ref.Cleaner;
+import java.nio.ByteBuffer;
+
+/**
+ * A buffer borrowed from a {@link BufferPool}, given back with {@link #release()}.
+ */
+public final class PooledBuffer {
+
+    static final class State {
+        final Throwable acquiredAt;
+        volatile boolean released = false;
+
+        State(Throwable acquiredAt) {
+            this.acquiredAt = acquiredAt;
+        }
+    }
+
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    private final State state;
+    private final Cleaner.Cleanable leakTracker;
+
+    PooledBuffer(BufferPool pool, ByteBuffer buffer, Throwable acquiredAt) {
+        this.pool = pool;
+        this.buffer = buffer;
+        this.state = new State(acquiredAt);
+        this.leakTracker = acquiredAt != null ? pool.trackLeak(this, state) : null;
+    }
+
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * Gives the buffer back to its pool. Releasing twice is a bug that would hand the same buffer
+     * to two users, it fails.
+     */
+    public void release() {
+        if (state.released) {
+            throw new IllegalStateException("Buffer released twice");
+        }
+        state.released = true;
+        if (leakTracker != null) {
+            leakTracker.clean();
+        }
+        pool.release(buffer);
+    }
+}
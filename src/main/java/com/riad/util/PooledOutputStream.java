@@ -0,0 +1,81 @@
+package com.riad.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A {@link java.io.BufferedOutputStream} whose buffer is borrowed from a heap {@link BufferPool}
+ * and given back on {@link #close()}.
+ */
+public class PooledOutputStream extends OutputStream {
+
+    private final OutputStream out;
+    private PooledBuffer pooledBuffer;
+    private final byte[] buf;
+    private final int offset;
+    private final int capacity;
+    private int count = 0;
+
+    public PooledOutputStream(OutputStream out, BufferPool pool, int size) {
+        if (pool.isDirect()) {
+            throw new IllegalArgumentException("A heap buffer pool is needed");
+        }
+        this.out = out;
+        this.pooledBuffer = pool.acquire(size);
+        ByteBuffer buffer = pooledBuffer.buffer();
+        this.buf = buffer.array();
+        this.offset = buffer.arrayOffset();
+        this.capacity = buffer.capacity();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == capacity) {
+            flushBuffer();
+        }
+        buf[offset + count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len >= capacity) {
+            // Larger than the buffer, no point copying it
+            flushBuffer();
+            out.write(b, off, len);
+            return;
+        }
+        if (len > capacity - count) {
+            flushBuffer();
+        }
+        System.arraycopy(b, off, buf, offset + count, len);
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (pooledBuffer == null) {
+            return;
+        }
+        try {
+            flush();
+        } finally {
+            pooledBuffer.release();
+            pooledBuffer = null;
+            out.close();
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        if (count > 0) {
+            out.write(buf, offset, count);
+            count = 0;
+        }
+    }
+}